@@ -0,0 +1,406 @@
+/******************************************************************************
+
+  Tail Gunner batch runner.
+
+  Plays many complete games headless, with a scripted gunner at the controls,
+  to see how changes to the ship types and balance settings play out. Each
+  worker thread plays one game at a time on its own world, so the games share
+  nothing but the ship templates and scale with the number of cores. Each
+  game is seeded from its number, so a batch comes out the same however many
+  threads play it.
+
+  One line is written for each game as it finishes to an optional CSV file,
+  with how long the gunner survived, the score and the ships of each type
+  shot down, got past and hit the shields. Totals are printed at the end.
+
+  Usage:
+
+  javac *.java
+  java -Djava.awt.headless=true TGBatch [options]
+
+  Options:
+
+  -games n          Number of games to play (default 10000).
+  -threads n        Worker threads (default one for each core).
+  -seed n           Seed for the first game; game i uses seed + i (default 1).
+  -capacity s,d     Ships in play and pieces of debris (default 6,20).
+  -types file       Ship types to use, in the text format if the name ends in
+                    .txt and in the binary format otherwise (default the
+                    game's own).
+  -shields n        Shields at the start of a game (default 100).
+  -maxspeed n       Top speed of the ships before their type's multiple
+                    (default 8).
+  -gunner name      Gunner to play: aim (default), which goes for the closest
+                    ship, moving the crosshairs up to 6 pixels a tick (or n
+                    pixels, given as aim:n), or random.
+  -limit seconds    Longest game time to play before stopping a game
+                    (default 1800).
+  -csv file         Write a line for each game to the file, or to standard
+                    output if it is "-".
+
+******************************************************************************/
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+public class TGBatch {
+
+  // Constants.
+
+  static final int WIDTH  = 640;    // Screen size the games are played on.
+  static final int HEIGHT = 480;
+
+  // Fields:
+
+  TGBatchSettings settings;
+
+  // Results shared by the workers: the next game to play, the distributions of
+  // game length (in ticks) and score, and where to write each game.
+
+  AtomicInteger next     = new AtomicInteger();
+  TGHistogram   survival = new TGHistogram();
+  TGHistogram   scores   = new TGHistogram();
+  PrintStream   csv;
+
+  // Totals of all games, added up from the workers at the end.
+
+  int    played;
+  int    unfinished;    // Games stopped at the time limit.
+  long   ticks;
+  long   points;
+  long[] kills;
+  long[] escapes;
+  long[] hits;
+  long   time;          // Time taken to play them all, in nanoseconds.
+
+  public static void main(String[] args) throws Exception {
+
+    TGBatchSettings settings;
+    TGBatch batch;
+    String csvName = null;
+    PrintStream report, csv;
+    int i;
+    int[] list;
+
+    if (args.length % 2 != 0) {
+      System.err.println("Option " + args[args.length - 1] + " has no value.");
+      System.err.println("Usage: java -Djava.awt.headless=true TGBatch [-option value ...]; see the top of TGBatch.java.");
+      System.exit(1);
+    }
+    settings = new TGBatchSettings();
+    for (i = 0; i < args.length; i += 2) {
+      if (args[i].equals("-games"))
+        settings.games = Integer.parseInt(args[i + 1]);
+      else if (args[i].equals("-threads"))
+        settings.threads = Math.max(1, Integer.parseInt(args[i + 1]));
+      else if (args[i].equals("-seed"))
+        settings.seed = Long.parseLong(args[i + 1]);
+      else if (args[i].equals("-capacity")) {
+        list = TGBench.parseList(args[i + 1]);
+        settings.numShips = list[0];
+        settings.maxDebris = list[1];
+      }
+      else if (args[i].equals("-types"))
+        settings.types = loadTypes(args[i + 1]);
+      else if (args[i].equals("-shields"))
+        settings.shieldStart = Integer.parseInt(args[i + 1]);
+      else if (args[i].equals("-maxspeed"))
+        settings.maxSpeed = Double.parseDouble(args[i + 1]);
+      else if (args[i].equals("-gunner"))
+        settings.gunner = args[i + 1];
+      else if (args[i].equals("-limit"))
+        settings.maxTicks = Integer.parseInt(args[i + 1]) * 1000 / TGWorld.DELAY;
+      else if (args[i].equals("-csv"))
+        csvName = args[i + 1];
+      else
+        throw new IllegalArgumentException("Unknown option " + args[i]);
+    }
+    if (settings.types == null)
+      settings.types = TGWorld.loadShipTypes();
+    newGunner(settings.gunner, 0);    // Check the gunner is known before starting.
+
+    // The totals go to standard output, unless the games are going there.
+
+    report = System.out;
+    csv = null;
+    if (csvName != null) {
+      if (csvName.equals("-")) {
+        csv = System.out;
+        report = System.err;
+      }
+      else
+        csv = new PrintStream(new BufferedOutputStream(new FileOutputStream(csvName)), false, "UTF-8");
+    }
+
+    batch = new TGBatch(settings, csv);
+    batch.play();
+    if (csv != null && csv != System.out)
+      csv.close();
+    batch.report(report);
+  }
+
+  // Load ship types from a file.
+
+  static TGShipFile loadTypes(String name) throws IOException {
+
+    TGShipFile file;
+    InputStream in;
+
+    file = new TGShipFile();
+    in = new BufferedInputStream(new FileInputStream(name));
+    try {
+      if (name.endsWith(".txt"))
+        file.readText(new InputStreamReader(in, "UTF-8"));
+      else
+        file.readBinary(new DataInputStream(in));
+    }
+    finally {
+      in.close();
+    }
+    return file;
+  }
+
+  // Make a gunner by name. Those that play at random start from the given seed.
+
+  static TGGunner newGunner(String name, long seed) {
+
+    if (name.equals("aim"))
+      return new TGAimGunner();
+    if (name.startsWith("aim:"))
+      return new TGAimGunner(Integer.parseInt(name.substring(4)));
+    if (name.equals("random"))
+      return new TGRandomGunner(seed);
+    throw new IllegalArgumentException("Unknown gunner " + name);
+  }
+
+  // Constructors:
+
+  // Set up a batch of games with the given settings, writing a line for each game
+  // to the given stream if it is not null.
+
+  public TGBatch(TGBatchSettings settings, PrintStream csv) {
+
+    this.settings = settings;
+    this.csv = csv;
+    this.kills = new long[settings.types.numTypes];
+    this.escapes = new long[settings.types.numTypes];
+    this.hits = new long[settings.types.numTypes];
+  }
+
+  // Methods:
+
+  // Play all the games, on the number of threads in the settings, and add up the
+  // totals.
+
+  public void play() throws InterruptedException {
+
+    TGBatchWorker[] workers;
+    Thread[] running;
+    long start;
+    int i, j;
+
+    if (this.csv != null)
+      this.csv.println(header());
+    workers = new TGBatchWorker[this.settings.threads];
+    running = new Thread[this.settings.threads];
+    start = System.nanoTime();
+    for (i = 0; i < workers.length; i++) {
+      workers[i] = new TGBatchWorker(this);
+      running[i] = new Thread(workers[i], "TGBatch-" + i);
+      running[i].start();
+    }
+    for (i = 0; i < workers.length; i++)
+      running[i].join();
+    this.time = System.nanoTime() - start;
+    if (this.csv != null)
+      this.csv.flush();
+
+    for (i = 0; i < workers.length; i++) {
+      this.played += workers[i].played;
+      this.unfinished += workers[i].unfinished;
+      this.ticks += workers[i].ticks;
+      this.points += workers[i].points;
+      for (j = 0; j < this.kills.length; j++) {
+        this.kills[j] += workers[i].kills[j];
+        this.escapes[j] += workers[i].escapes[j];
+        this.hits[j] += workers[i].hits[j];
+      }
+    }
+  }
+
+  // Column names for the CSV file. Ship type names are reduced to letters, digits
+  // and underscores.
+
+  String header() {
+
+    StringBuilder b;
+    String[] kinds = { "kills_", "escapes_", "hits_" };
+    TGShipFile types;
+    int i, j;
+
+    types = this.settings.types;
+    b = new StringBuilder("game,seed,ticks,seconds,finished,score,shields");
+    for (i = 0; i < kinds.length; i++)
+      for (j = 0; j < types.numTypes; j++)
+        b.append(',').append(kinds[i]).append(types.types[j].name.replaceAll("[^A-Za-z0-9]+", "_"));
+    return b.toString();
+  }
+
+  // Write a game's line to the CSV file.
+
+  void write(int game, long gameSeed, int t, TGWorld world) {
+
+    StringBuilder b;
+    int i;
+
+    b = new StringBuilder(128);
+    b.append(game).append(',').append(gameSeed).append(',').append(t).append(',');
+    b.append(t * TGWorld.DELAY / 1000.0).append(',').append(world.gameState == TGWorld.PLAY ? 0 : 1).append(',');
+    b.append(world.score).append(',').append(world.shields);
+    for (i = 0; i < world.numTypes; i++)
+      b.append(',').append(world.kills[i]);
+    for (i = 0; i < world.numTypes; i++)
+      b.append(',').append(world.escapes[i]);
+    for (i = 0; i < world.numTypes; i++)
+      b.append(',').append(world.hits[i]);
+    synchronized (this.csv) {
+      this.csv.println(b);
+    }
+  }
+
+  // Print the totals of all games.
+
+  void report(PrintStream out) {
+
+    TGShipFile types;
+    int i, w;
+    long shot, passed;
+
+    types = this.settings.types;
+    out.println(String.format("games:     %d on %d threads in %.1f s (%.0f games/s, %.0f ticks/s)",
+      this.played, this.settings.threads, this.time / 1e9, this.played * 1e9 / this.time, this.ticks * 1e9 / this.time));
+    if (this.played == 0)
+      return;
+    out.println(String.format("survival:  mean %.1f s, p10 %.1f s, p50 %.1f s, p90 %.1f s, %d stopped at the limit",
+      seconds((double) this.ticks / this.played), seconds(this.survival.percentile(10)),
+      seconds(this.survival.percentile(50)), seconds(this.survival.percentile(90)), this.unfinished));
+    out.println(String.format("score:     mean %.0f, p10 %d, p50 %d, p90 %d, max %d",
+      (double) this.points / this.played, this.scores.percentile(10), this.scores.percentile(50),
+      this.scores.percentile(90), this.scores.max()));
+    w = 4;
+    for (i = 0; i < types.numTypes; i++)
+      w = Math.max(w, types.types[i].name.length());
+    out.println(String.format("%-" + w + "s     kills  escapes     hits  killed  damage", "type"));
+    for (i = 0; i < types.numTypes; i++) {
+      shot = this.kills[i];
+      passed = this.escapes[i];
+      out.println(String.format("%-" + w + "s %9d %8d %8d %6.1f%% %7d", types.types[i].name, shot, passed, this.hits[i],
+        100.0 * shot / Math.max(1, shot + passed), this.hits[i] * types.types[i].damage));
+    }
+  }
+
+  static double seconds(double ticks) {
+
+    return ticks * TGWorld.DELAY / 1000;
+  }
+}
+
+/******************************************************************************
+  The TGBatchSettings class holds what a batch of games is played with. The
+  defaults are the game's own.
+******************************************************************************/
+
+class TGBatchSettings {
+
+  // Fields:
+
+  int        games       = 10000;
+  int        threads     = Runtime.getRuntime().availableProcessors();
+  long       seed        = 1;
+  int        numShips    = TGWorld.NUM_SHIPS;
+  int        maxDebris   = TGWorld.MAX_DEBRIS;
+  TGShipFile types;
+  int        shieldStart = TGWorld.SHIELD_START;
+  double     maxSpeed    = TGWorld.MAX_SPEED;
+  String     gunner      = "aim";
+  int        maxTicks    = 1800 * 1000 / TGWorld.DELAY;
+}
+
+/******************************************************************************
+  The TGBatchWorker class plays games of a batch on one thread until there are
+  none left, keeping its own totals.
+******************************************************************************/
+
+class TGBatchWorker implements Runnable {
+
+  // Fields:
+
+  TGBatch batch;
+
+  int    played;
+  int    unfinished;
+  long   ticks;
+  long   points;
+  long[] kills;
+  long[] escapes;
+  long[] hits;
+
+  // Constructors:
+
+  public TGBatchWorker(TGBatch batch) {
+
+    this.batch = batch;
+    this.kills = new long[batch.settings.types.numTypes];
+    this.escapes = new long[batch.settings.types.numTypes];
+    this.hits = new long[batch.settings.types.numTypes];
+  }
+
+  // Methods:
+
+  public void run() {
+
+    TGBatchSettings settings;
+    TGWorld world;
+    TGGunner player;
+    long gameSeed;
+    int game, t, i;
+
+    settings = this.batch.settings;
+    while ((game = this.batch.next.getAndIncrement()) < settings.games) {
+
+      // A new world and gunner for each game, so every game starts the same way
+      // from its seed whichever thread plays it. The worlds are not rendered in
+      // parallel, as the games already are.
+
+      gameSeed = settings.seed + game;
+      world = new TGWorld(TGBatch.WIDTH, TGBatch.HEIGHT, settings.numShips, settings.maxDebris, gameSeed, settings.types);
+      world.parallel = false;
+      world.shieldStart = settings.shieldStart;
+      world.maxSpeed = settings.maxSpeed;
+      player = TGBatch.newGunner(settings.gunner, ~gameSeed);
+      world.initGame();
+      for (t = 0; t < settings.maxTicks && world.gameState == TGWorld.PLAY; t++) {
+        player.aim(world);
+        world.step();
+      }
+
+      // Add the game to the totals.
+
+      this.played++;
+      if (world.gameState == TGWorld.PLAY)
+        this.unfinished++;
+      this.ticks += t;
+      this.points += world.score;
+      for (i = 0; i < world.numTypes; i++) {
+        this.kills[i] += world.kills[i];
+        this.escapes[i] += world.escapes[i];
+        this.hits[i] += world.hits[i];
+      }
+      this.batch.survival.record(t);
+      this.batch.scores.record(world.score);
+      if (this.batch.csv != null)
+        this.batch.write(game, gameSeed, t, world);
+    }
+  }
+}
@@ -0,0 +1,971 @@
+/******************************************************************************
+
+  Tail Gunner benchmarks.
+
+  Times each stage of the frame pipeline (transform, project, render, depth
+  sort and crosshair hit-testing) on a synthetic scene of ships and debris,
+  and reports the time and the number of bytes allocated per frame. The
+  parallel stage renders and sorts the whole scene the way the game does, on
+  the fork/join pool when there are enough objects. The raster stage fills the
+  pixels of the sorted frame on one thread, and the tiles stage fills them in
+  tiles on the fork/join pool. Also runs
+  a headless soak of the full game to count garbage collections, and a check
+  that drawing in tiles gives the same pixels as drawing on one thread.
+
+  Usage:
+
+  javac *.java
+  java -Djava.awt.headless=true TGBench [options]
+
+  The benchmarks use the game's own classes, which live in TailGunner.java
+  with the applet rather than each in a file of its own, so javac's
+  auxiliaryclass lint warns about every use. That is expected; leave it out
+  with javac -Xlint:all,-auxiliaryclass *.java.
+
+  Options:
+
+  -ships n,n,...    Number of ships in the scene (default 6,100,1000).
+  -types t,t,...    Ship types, 0-3 (default 0,1,2,3).
+  -debris n,n,...   Number of pieces of debris (default 0,200).
+  -stages s,s,...   Stages to run (default all): transform, project, render,
+                    sort, hittest, frame, parallel, raster, tiles.
+  -warmup ms        Warm up time for each benchmark (default 1000).
+  -time ms          Measurement time for each benchmark (default 2000).
+  -soak seconds     Run the game headless for the given time instead and
+                    report garbage collection activity. Sound effects are
+                    mixed into a null sink if the .au files are on the class
+                    path.
+  -capacity s,d     Ships in play and pieces of debris for the soak (default
+                    6,20).
+  -record file      Record the soak's game, for replaying with TGReplay.
+  -gunner name      Gunner playing the soak: random (default), which wanders
+                    and fires at random, or aim or aim:n, which go for the
+                    closest ship (see TGBatch).
+  -screen w,h       Screen size for the scenes (default 640,480).
+  -check frames     Instead of timing, draw each scene the given number of
+                    times, shaken and blasted, in parallel tiles and on one
+                    thread as a single tile, and count the pixels that differ.
+  -loops games      Instead of timing, play the given number of games with the
+                    gunner twice, a tick at a time as TGBatch does and with
+                    renders in between ticks as the applet does, and check
+                    that the worlds stay the same.
+  -verify c,c,...   Instead of timing, run the given checks that faster ways of
+                    drawing give the same results as the plain ones they
+                    replaced, and exit with an error if any differ:
+                    shading   back-face culling and shades of every ship type
+                              in random orientations, against the cross
+                              product and arc cosine of the original code.
+                    clipping  view and near-plane culling of ships anywhere
+                              around and behind the viewpoint, against every
+                              face projected without culling: faces in front
+                              of the near plane must be drawn unchanged if
+                              they are on the screen, clipped faces must be
+                              whole polygons, and faces behind it dropped.
+                    hits      hit-testing of ships at every level of detail,
+                              in games played by the aim gunner, against
+                              their full-detail shapes, and that testing
+                              leaves what the ships drew untouched.
+                    snapshots saving games part way through worlds of up
+                              to 500 ships and restoring them, into new
+                              worlds and over ones in another game, and
+                              playing on from both with renders in between
+                              ticks: the snapshots must compare the same and
+                              the worlds stay the same after every tick.
+
+******************************************************************************/
+
+import java.awt.Polygon;
+import java.io.*;
+import java.lang.management.*;
+import java.nio.*;
+import java.util.*;
+
+public class TGBench {
+
+  // Constants.
+
+  static int width  = 640;    // Screen size used for the scenes.
+  static int height = 480;
+  static final int ITERATIONS = 5;  // Measurement iterations per benchmark.
+  static final int LOOP_TICKS = 1800 * 1000 / TGWorld.DELAY;    // Longest game for -loops.
+  static final int VERIFY_RENDERS = 48000;    // Renders for each -verify check.
+  static final int VERIFY_TICKS = 3000;       // Game ticks for -verify hits.
+  static final int VERIFY_SNAPSHOTS = 40;     // Games for -verify snapshots.
+
+  static final String[] STAGES = { "transform", "project", "render", "sort", "hittest", "frame", "parallel", "raster", "tiles" };
+
+  // Scene data.
+
+  TGWorld    world;
+  TGObject[] objects;
+  TGFrame    frame;     // The sorted scene, and the pixels it is drawn into.
+  TGRaster   raster;
+  int        query;     // Crosshair position for hit-testing.
+  long       framesRun;
+  double     sink;      // Results, kept so the work cannot be optimized away.
+
+  // Allocation counter for the current thread, if the JVM has one.
+
+  static com.sun.management.ThreadMXBean threads;
+
+  public static void main(String[] args) {
+
+    int[] ships = { 6, 100, 1000 };
+    int[] types = { 0, 1, 2, 3 };
+    int[] debris = { 0, 200 };
+    String[] stages = STAGES;
+    long warmup = 1000;
+    long time = 2000;
+    int soak = 0;
+    int check = 0;
+    int loops = 0;
+    String[] verify = null;
+    String record = null;
+    String gunner = "random";
+    int[] screen;
+    int[] capacity = { TGWorld.NUM_SHIPS, TGWorld.MAX_DEBRIS };
+    int i, a, b, c, d;
+    boolean failed = false;
+    TGBench bench;
+
+    if (args.length % 2 != 0) {
+      System.err.println("Option " + args[args.length - 1] + " has no value.");
+      System.err.println("Usage: java -Djava.awt.headless=true TGBench [-option value ...]; see the top of TGBench.java.");
+      System.exit(1);
+    }
+    for (i = 0; i < args.length; i += 2) {
+      if (args[i].equals("-ships"))
+        ships = parseList(args[i + 1]);
+      else if (args[i].equals("-types"))
+        types = parseList(args[i + 1]);
+      else if (args[i].equals("-debris"))
+        debris = parseList(args[i + 1]);
+      else if (args[i].equals("-stages"))
+        stages = args[i + 1].split(",");
+      else if (args[i].equals("-warmup"))
+        warmup = Long.parseLong(args[i + 1]);
+      else if (args[i].equals("-time"))
+        time = Long.parseLong(args[i + 1]);
+      else if (args[i].equals("-soak"))
+        soak = Integer.parseInt(args[i + 1]);
+      else if (args[i].equals("-capacity"))
+        capacity = parseList(args[i + 1]);
+      else if (args[i].equals("-record"))
+        record = args[i + 1];
+      else if (args[i].equals("-gunner"))
+        gunner = args[i + 1];
+      else if (args[i].equals("-screen")) {
+        screen = parseList(args[i + 1]);
+        width = screen[0];
+        height = screen[1];
+      }
+      else if (args[i].equals("-check"))
+        check = Integer.parseInt(args[i + 1]);
+      else if (args[i].equals("-loops"))
+        loops = Integer.parseInt(args[i + 1]);
+      else if (args[i].equals("-verify"))
+        verify = args[i + 1].split(",");
+      else
+        throw new IllegalArgumentException("Unknown option " + args[i]);
+    }
+
+    if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+      threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+      if (!threads.isThreadAllocatedMemorySupported())
+        threads = null;
+      else
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    if (soak > 0) {
+      soak(soak, capacity[0], capacity[1], record, TGBatch.newGunner(gunner, 1));
+      return;
+    }
+
+    if (loops > 0) {
+      if (!loops(loops, capacity[0], capacity[1], gunner))
+        System.exit(1);
+      return;
+    }
+
+    if (verify != null) {
+      for (a = 0; a < verify.length; a++)
+        failed |= !verify(verify[a]);
+      if (failed)
+        System.exit(1);
+      return;
+    }
+
+    if (check > 0) {
+      System.out.println("ships type debris   frames  pixels differing");
+      for (b = 0; b < ships.length; b++)
+        for (c = 0; c < types.length; c++)
+          for (d = 0; d < debris.length; d++) {
+            bench = new TGBench(ships[b], types[c], debris[d]);
+            failed |= !bench.check(check);
+          }
+      if (failed)
+        System.exit(1);
+      return;
+    }
+
+    System.out.println("stage      ships type debris      ns/frame     +/-   bytes/frame");
+    for (a = 0; a < stages.length; a++)
+      for (b = 0; b < ships.length; b++)
+        for (c = 0; c < types.length; c++)
+          for (d = 0; d < debris.length; d++) {
+            bench = new TGBench(ships[b], types[c], debris[d]);
+            bench.measure(stages[a], warmup, time);
+          }
+  }
+
+  static int[] parseList(String s) {
+
+    String[] parts;
+    int[] list;
+    int i;
+
+    parts = s.split(",");
+    list = new int[parts.length];
+    for (i = 0; i < parts.length; i++)
+      list[i] = Integer.parseInt(parts[i].trim());
+    return list;
+  }
+
+  // Build a scene with the given number of ships of one type and pieces of debris
+  // taken from them, spread over the full range of distances.
+
+  public TGBench(int numShips, int type, int numDebris) {
+
+    Random random;
+    TGShip ship;
+    TGDebris piece;
+    int i;
+
+    this.world = new TGWorld(width, height);
+    this.objects = new TGObject[numShips + numDebris];
+    random = new Random(1);
+    ship = null;
+    for (i = 0; i < numShips + numDebris; i++) {
+      if (i < numShips || ship == null) {
+        ship = new TGShip(this.world.types[type]);
+        ship.type = type;
+        ship.color = random.nextInt(TGWorld.NUM_COLORS);
+        ship.a1 = random.nextDouble() * 2 * Math.PI;
+        ship.a2 = random.nextDouble() * 2 * Math.PI;
+        ship.dx = TGWorld.MAX_HORIZONTAL * Math.sin(ship.a1);
+        ship.dy = TGWorld.MAX_VERTICAL * Math.sin(ship.a2);
+        ship.ax = -Math.sin(ship.a2) * Math.PI / 6;
+        ship.az =  Math.sin(ship.a1) * Math.PI / 6;
+        ship.dz = TGWorld.START_DISTANCE + random.nextDouble() * (TGWorld.END_DISTANCE - TGWorld.START_DISTANCE);
+        ship.dist1 = ship.dist2 = Math.abs(ship.dz);
+      }
+      if (i < numShips)
+        this.objects[i] = ship;
+      else {
+        piece = new TGDebris(ship, random.nextInt(ship.mesh.numFaces));
+        piece.ax = random.nextDouble() * 2 * Math.PI;
+        piece.ay = random.nextDouble() * 2 * Math.PI;
+        piece.az = random.nextDouble() * 2 * Math.PI;
+        piece.dz = ship.dz + random.nextDouble() * 50;
+        piece.active = true;
+        this.objects[i] = piece;
+      }
+    }
+
+    // Render everything once so each stage starts from a complete frame.
+
+    render();
+    sort();
+    this.frame = new TGFrame();
+    this.frame.capture(this.world);
+    this.raster = new TGRaster(width, height);
+  }
+
+  // Run a stage for the warm up time, then for the given time in several iterations,
+  // and print the average time and allocation per frame.
+
+  public void measure(String stage, long warmup, long time) {
+
+    int code, i;
+    long bytes;
+    double[] nanos;
+    double mean, dev;
+
+    code = Arrays.asList(STAGES).indexOf(stage);
+    if (code < 0)
+      throw new IllegalArgumentException("Unknown stage " + stage);
+    run(code, warmup * 1000000L);
+
+    nanos = new double[ITERATIONS];
+    this.framesRun = 0;
+    bytes = allocated();
+    for (i = 0; i < ITERATIONS; i++)
+      nanos[i] = run(code, time * 1000000L / ITERATIONS);
+    bytes = allocated() - bytes;
+    mean = 0;
+    for (i = 0; i < ITERATIONS; i++)
+      mean += nanos[i] / ITERATIONS;
+    dev = 0;
+    for (i = 0; i < ITERATIONS; i++)
+      dev += (nanos[i] - mean) * (nanos[i] - mean) / ITERATIONS;
+    dev = Math.sqrt(dev);
+
+    System.out.println(String.format("%-10s %5d %4d %6d %13.0f %7.0f %13s",
+      stage, countShips(), ((TGShip) this.objects[0]).type, this.objects.length - countShips(),
+      mean, dev, threads == null ? "n/a" : String.format("%.1f", (double) bytes / this.framesRun)));
+  }
+
+  // Run one stage repeatedly for the given time and return the average time per
+  // frame. The number of frames run is added to framesRun.
+
+  private double run(int code, long nanos) {
+
+    long start, now, n;
+
+    n = 0;
+    start = System.nanoTime();
+    do {
+      switch (code) {
+        case 0: transform(); break;
+        case 1: project(); break;
+        case 2: render(); break;
+        case 3: sort(); break;
+        case 4: hitTest(); break;
+        case 5: render(); sort(); hitTest(); break;
+        case 6: this.world.render(1.0); break;
+        case 7: raster(false); break;
+        case 8: raster(true); break;
+      }
+      n++;
+      now = System.nanoTime();
+    } while (now - start < nanos);
+    this.framesRun += n;
+    return (double) (now - start) / n;
+  }
+
+  // The stages.
+
+  private void transform() {
+
+    int i;
+
+    for (i = 0; i < this.objects.length; i++)
+      this.objects[i].transform();
+    this.sink += this.objects[0].vt[0];
+  }
+
+  private void project() {
+
+    int i;
+
+    for (i = 0; i < this.objects.length; i++)
+      this.objects[i].project(this.world.viewpoint);
+    this.sink += this.objects[0].vp[0];
+  }
+
+  private void render() {
+
+    int i;
+
+    for (i = 0; i < this.objects.length; i++)
+      this.objects[i].render(this.world.viewpoint, TGWorld.MAG, width / 2, height / 2);
+    this.sink += this.objects[0].numPolygons;
+  }
+
+  private void sort() {
+
+    int i;
+
+    this.world.list.reset();
+    for (i = 0; i < this.objects.length; i++)
+      this.world.list.add(this.objects[i]);
+    this.world.list.sort();
+    this.sink += this.world.list.numEntries;
+  }
+
+  private void raster(boolean parallel) {
+
+    this.raster.parallel = parallel;
+    this.raster.draw(this.frame, 0, 0);
+    this.sink += this.raster.pixels[width * height / 2 + width / 2];
+  }
+
+  // Draw the scene in parallel tiles and as a single tile on one thread, with the
+  // view shaken and blasted on some frames, and print how many pixels differ.
+  // Returns true if none do.
+
+  public boolean check(int frames) {
+
+    TGRaster single;
+    Random random;
+    long differ;
+    int i, j, x, y;
+
+    single = new TGRaster(width, height, Math.max(width, height));
+    single.parallel = false;
+    this.raster.parallel = true;
+    random = new Random(1);
+    differ = 0;
+    for (i = 0; i < frames; i++) {
+      this.frame.blastCounter = (i % 3 == 2) ? 1 : 0;
+      x = (i % 2 == 1) ? random.nextInt(2 * TailGunner.MAX_SHAKE + 1) - TailGunner.MAX_SHAKE : 0;
+      y = (i % 2 == 1) ? random.nextInt(2 * TailGunner.MAX_SHAKE + 1) - TailGunner.MAX_SHAKE : 0;
+      this.raster.draw(this.frame, x, y);
+      single.draw(this.frame, x, y);
+      for (j = 0; j < this.raster.pixels.length; j++)
+        if (this.raster.pixels[j] != single.pixels[j])
+          differ++;
+    }
+    System.out.println(String.format("%5d %4d %6d %8d %7d %9d",
+      countShips(), ((TGShip) this.objects[0]).type, this.objects.length - countShips(),
+      frames, (long) width * height, differ));
+    return differ == 0;
+  }
+
+  // Index the ships on the screen and move the crosshairs over a grid of points,
+  // one per frame, to find the target.
+
+  private void hitTest() {
+
+    this.world.grid.build(this.world.list, width, height);
+    this.query = (this.query + 1) % 1200;
+    this.world.mx = (this.query % 40) * width / 40;
+    this.world.my = (this.query / 40) * height / 30;
+    this.world.updateTarget();
+    this.sink += this.world.targetRange;
+  }
+
+  private int countShips() {
+
+    int i, n;
+
+    n = 0;
+    for (i = 0; i < this.objects.length; i++)
+      if (!(this.objects[i] instanceof TGDebris))
+        n++;
+    return n;
+  }
+
+  static long allocated() {
+
+    if (threads == null)
+      return 0;
+    return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  // Play complete games headless, with the given gunner at the crosshairs, and
+  // report garbage collection activity. The same world is used for every game,
+  // as in the applet, and may be recorded to the given file.
+
+  static void soak(int seconds, int numShips, int maxDebris, String record, TGGunner gunner) {
+
+    TGWorld world;
+    TGMixer mixer;
+    TGReplay replay;
+    long start, end, ticks, games, bytes;
+    long gcCount, gcTime;
+    List<GarbageCollectorMXBean> beans;
+    GarbageCollectorMXBean bean;
+    int i;
+
+    mixer = nullMixer();
+    beans = ManagementFactory.getGarbageCollectorMXBeans();
+    gcCount = gcTime = 0;
+    for (i = 0; i < beans.size(); i++) {
+      bean = beans.get(i);
+      gcCount -= bean.getCollectionCount();
+      gcTime -= bean.getCollectionTime();
+    }
+    ticks = games = 0;
+    bytes = allocated();
+    start = System.nanoTime();
+    end = start + seconds * 1000000000L;
+    world = null;
+    while (System.nanoTime() < end) {
+      if (world == null) {
+        world = new TGWorld(width, height, numShips, maxDebris, 1);
+        world.sounds = mixer;
+        if (record != null) {
+          try {
+            world.replay = new TGReplay(new BufferedOutputStream(new FileOutputStream(record)), world);
+          }
+          catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      }
+      if (world.gameState != TGWorld.PLAY) {
+        world.initGame();
+        games++;
+      }
+      gunner.aim(world);
+      world.step();
+      ticks++;
+    }
+    bytes = allocated() - bytes;
+    replay = world.replay;
+    if (replay != null) {
+      replay.close(world);
+      if (replay.error != null)
+        throw new RuntimeException(replay.error);
+      System.out.println("recorded:    " + replay.ticks + " ticks to " + record);
+    }
+    for (i = 0; i < beans.size(); i++) {
+      bean = beans.get(i);
+      gcCount += bean.getCollectionCount();
+      gcTime += bean.getCollectionTime();
+    }
+
+    System.out.println("ticks:       " + ticks + " (" + (ticks * 1000000000L / (System.nanoTime() - start)) + "/s)");
+    System.out.println("games:       " + games);
+    System.out.println("bytes/tick:  " + (threads == null ? "n/a" : String.format("%.1f", (double) bytes / ticks)));
+    System.out.println("collections: " + gcCount + " (" + gcTime + " ms)");
+    if (mixer != null) {
+      mixer.close();
+      System.out.println("sound:       " + (mixer.time / TGMixer.RATE) + " s mixed");
+    }
+  }
+
+  // Play each game twice from the same seed with the given gunner: once a tick at
+  // a time, as TGBatch does, and once the way the applet does, running a varying
+  // number of ticks for each screen update and rendering in between ticks after
+  // them. The worlds' checksums are compared after every tick, since what the
+  // gunner sees must only depend on the ticks run and not on what was last drawn.
+  // Returns whether every game came out the same.
+
+  static boolean loops(int games, int numShips, int maxDebris, String gunner) {
+
+    TGWorld batch, applet;
+    TGGunner a, b;
+    Random updates;
+    int game, t, i, n;
+    boolean same, failed;
+
+    System.out.println("game    ticks   score  result");
+    failed = false;
+    for (game = 0; game < games; game++) {
+      batch = new TGWorld(width, height, numShips, maxDebris, 1 + game);
+      applet = new TGWorld(width, height, numShips, maxDebris, 1 + game);
+      batch.parallel = false;
+      a = TGBatch.newGunner(gunner, ~(1 + game));
+      b = TGBatch.newGunner(gunner, ~(1 + game));
+      updates = new Random(game);
+      batch.initGame();
+      applet.initGame();
+      same = true;
+      t = 0;
+      while (same && t < LOOP_TICKS && batch.gameState == TGWorld.PLAY) {
+        n = updates.nextInt(4);
+        for (i = 0; i < n && same && batch.gameState == TGWorld.PLAY; i++) {
+          a.aim(batch);
+          batch.step();
+          b.aim(applet);
+          applet.step();
+          same = (batch.checksum() == applet.checksum());
+          t++;
+        }
+        applet.render(updates.nextDouble());
+      }
+      System.out.println(String.format("%4d %8d %7d  %s", game, t, batch.score,
+        same ? "same" : "differ after tick " + t));
+      failed |= !same;
+    }
+    return !failed;
+  }
+
+  // Run one of the -verify checks. Returns true if nothing differed.
+
+  static boolean verify(String name) {
+
+    if (name.equals("shading"))
+      return verifyShading(VERIFY_RENDERS);
+    if (name.equals("clipping"))
+      return verifyClipping(VERIFY_RENDERS);
+    if (name.equals("hits"))
+      return verifyHits(VERIFY_TICKS);
+    if (name.equals("snapshots"))
+      return verifySnapshots(VERIFY_SNAPSHOTS);
+    throw new IllegalArgumentException("Unknown check " + name);
+  }
+
+  // Render each ship type in random orientations and distances, and check which
+  // faces are drawn and their shades against the way the original code found them:
+  // a normal from the cross product of the first three transformed points of each
+  // face, and a shade from the arc cosine of its angle to the view vector.
+
+  static boolean verifyShading(int renders) {
+
+    TGWorld world;
+    TGObject object;
+    Random random;
+    double[] vt;
+    int[] faceIndices, faceOffsets;
+    int type, i, j, k, faces, differ, shade;
+    double angle;
+
+    world = new TGWorld(width, height);
+    random = new Random(1);
+    faces = differ = 0;
+    for (i = 0; i < renders; i++) {
+      type = i % world.numTypes;
+      object = new TGObject(fullDetail(world.types[type].mesh));
+      object.ax = random.nextDouble() * 2 * Math.PI;
+      object.ay = random.nextDouble() * 2 * Math.PI;
+      object.az = random.nextDouble() * 2 * Math.PI;
+      object.dz = TGWorld.START_DISTANCE + random.nextDouble() * (TGWorld.DEMO_DISTANCE - TGWorld.START_DISTANCE);
+      object.dx = (random.nextDouble() - 0.5) * object.dz / 4;
+      object.dy = (random.nextDouble() - 0.5) * object.dz / 4;
+      object.render(world.viewpoint, TGWorld.MAG, width / 2, height / 2);
+      vt = object.vt;
+      faceIndices = object.mesh.faceIndices;
+      faceOffsets = object.mesh.faceOffsets;
+      for (j = 0, k = 0; j < object.mesh.numFaces; j++) {
+        angle = oldAngle(vt, faceIndices[faceOffsets[j]], faceIndices[faceOffsets[j] + 1],
+                         faceIndices[faceOffsets[j] + 2], world.viewpoint);
+        shade = 255 - (int) (255 * (angle / (Math.PI / 2)));
+        faces++;
+        if (angle < Math.PI / 2) {
+          if (k < object.numPolygons && object.polygons[k] == object.facePolygons[j] && object.shades[k] == shade)
+            k++;
+          else
+            differ++;
+        }
+        else if (k < object.numPolygons && object.polygons[k] == object.facePolygons[j]) {
+          differ++;
+          k++;
+        }
+      }
+    }
+    System.out.println("shading:     " + renders + " renders, " + faces + " faces, " + differ + " differ");
+    return differ == 0;
+  }
+
+  // Render each ship type at random places, many off the screen or through the
+  // near plane, and check the faces kept against all of them projected without
+  // culling or clipping. A visible face wholly in front of the near plane must be
+  // drawn exactly as projected if it is on the screen (the view is culled before
+  // points are rounded to pixels, so a face that only reaches the edge row or column
+  // by rounding may be left out), one wholly behind must be dropped, and one that
+  // crosses the plane must be a polygon of at least three points no deeper than
+  // the plane.
+
+  static boolean verifyClipping(int renders) {
+
+    TGWorld world;
+    TGObject object;
+    TGPoint v;
+    Random random;
+    Polygon polygon;
+    double[] vt, vp;
+    int[] faceIndices, faceOffsets, xs, ys, drawn;
+    int type, i, j, k, n, start, count, front, faces, culled, clipped, differ, shade;
+    int x0, y0, x1, y1, xoffset, yoffset;
+    double near, limit, angle;
+    boolean same;
+
+    world = new TGWorld(width, height);
+    v = world.viewpoint;
+    near = v.zt - TGObject.NEAR;
+    limit = v.zt * near / (v.zt - near);
+    xoffset = width / 2;
+    yoffset = height / 2;
+    random = new Random(1);
+    faces = culled = clipped = differ = 0;
+    for (i = 0; i < renders; i++) {
+      type = i % world.numTypes;
+      object = new TGObject(fullDetail(world.types[type].mesh));
+      object.ax = random.nextDouble() * 2 * Math.PI;
+      object.ay = random.nextDouble() * 2 * Math.PI;
+      object.az = random.nextDouble() * 2 * Math.PI;
+      object.dz = (i % 2 == 0) ? near - 20 + random.nextDouble() * 40
+                               : TGWorld.START_DISTANCE + random.nextDouble() * (v.zt + 20 - TGWorld.START_DISTANCE);
+      object.dx = (random.nextDouble() - 0.5) * (Math.abs(v.zt - object.dz) + 20);
+      object.dy = (random.nextDouble() - 0.5) * (Math.abs(v.zt - object.dz) + 20) * height / width;
+
+      // Render with culling, note which face each polygon is, then project every
+      // point for the reference.
+
+      object.render(v, TGWorld.MAG, xoffset, yoffset);
+      if (object.numPolygons == 0)
+        culled++;
+      drawn = new int[object.mesh.numFaces];
+      Arrays.fill(drawn, -1);
+      for (k = 0; k < object.numPolygons; k++)
+        for (j = 0; j < object.mesh.numFaces; j++)
+          if (object.polygons[k] == object.facePolygons[j])
+            drawn[j] = k;
+      object.transform();
+      object.project(v);
+      vt = object.vt;
+      vp = object.vp;
+      faceIndices = object.mesh.faceIndices;
+      faceOffsets = object.mesh.faceOffsets;
+
+      for (j = 0; j < object.mesh.numFaces; j++) {
+        faces++;
+        start = faceOffsets[j];
+        count = faceOffsets[j + 1] - start;
+        angle = oldAngle(vt, faceIndices[start], faceIndices[start + 1], faceIndices[start + 2], v);
+        front = 0;
+        for (n = 0; n < count; n++)
+          if (vt[3 * faceIndices[start + n] + 2] <= near)
+            front++;
+        k = drawn[j];
+        if (angle >= Math.PI / 2 || front == 0) {
+          if (k >= 0)
+            differ++;
+          continue;
+        }
+        polygon = (k >= 0) ? object.polygons[k] : null;
+        if (front < count) {
+          if (k >= 0) {
+            clipped++;
+            if (polygon.npoints < 3 || polygon.npoints > count + 1 || !(object.depths[k] <= limit + 1e-9))
+              differ++;
+          }
+          continue;
+        }
+
+        // Wholly in front: project it the way render() does.
+
+        xs = new int[count];
+        ys = new int[count];
+        x0 = y0 = Integer.MAX_VALUE;
+        x1 = y1 = Integer.MIN_VALUE;
+        for (n = 0; n < count; n++) {
+          xs[n] = (int) Math.round((TGWorld.MAG * vp[3 * faceIndices[start + n]]) + xoffset);
+          ys[n] = (2 * yoffset) - Math.round((int) (TGWorld.MAG * vp[3 * faceIndices[start + n] + 1]) + yoffset);
+          x0 = Math.min(x0, xs[n]); x1 = Math.max(x1, xs[n]);
+          y0 = Math.min(y0, ys[n]); y1 = Math.max(y1, ys[n]);
+        }
+        shade = 255 - (int) (255 * (angle / (Math.PI / 2)));
+        if (k < 0) {
+          if (x1 > 0 && x0 < width - 1 && y1 > 0 && y0 < height - 1)
+            differ++;
+          continue;
+        }
+        same = polygon.npoints == count && object.shades[k] == shade;
+        for (n = 0; same && n < count; n++)
+          same = polygon.xpoints[n] == xs[n] && polygon.ypoints[n] == ys[n];
+        if (!same)
+          differ++;
+      }
+    }
+    System.out.println("clipping:    " + renders + " renders (" + culled + " culled), " + faces + " faces (" +
+                       clipped + " clipped), " + differ + " differ");
+    return differ == 0;
+  }
+
+  // Play games of 40 ships with the aim gunner and, after each tick, try points in
+  // and around each ship against TGObject.hit() and against a full-detail copy of
+  // the ship in the same place. Distant ships are drawn simplified or as squares,
+  // but what can be hit must be the full-detail shape, and testing must not change
+  // what the ship drew. Ships that appeared after the tick's render, when the shot
+  // was taken, cannot be hit until the next one and are left out.
+
+  static boolean verifyHits(int ticks) {
+
+    TGWorld world;
+    TGGunner gunner;
+    TGShip ship;
+    TGObject full, probe;
+    Random random;
+    double[] vt, matrix, pose;
+    double depth;
+    long points, hits, differ;
+    int t, i, j, q, x, y, x0, y0, x1, y1, xoffset, yoffset;
+    boolean inside, hit;
+
+    world = new TGWorld(width, height, 40, TGWorld.MAX_DEBRIS, 3);
+    world.parallel = false;
+    gunner = new TGAimGunner();
+    probe = new TGObject();
+    random = new Random(1);
+    pose = new double[12];
+    xoffset = width / 2;
+    yoffset = height / 2;
+    points = hits = differ = 0;
+    for (t = 0; t < ticks; t++) {
+      if (world.gameState != TGWorld.PLAY)
+        world.initGame();
+      gunner.aim(world);
+      world.step();
+      for (i = 0; i < world.numShips; i++) {
+        ship = world.ships[i];
+        if (ship.template == null)
+          continue;
+        TGObject.setMatrix(pose, ship.ax, ship.ay, ship.az, ship.m, ship.dx, ship.dy, ship.dz);
+        if (!Arrays.equals(pose, ship.matrix))
+          continue;
+        full = new TGObject(fullDetail(ship.mesh));
+        full.ax = ship.ax; full.ay = ship.ay; full.az = ship.az;
+        full.m = ship.m;
+        full.dx = ship.dx; full.dy = ship.dy; full.dz = ship.dz;
+        full.render(world.viewpoint, TGWorld.MAG, xoffset, yoffset);
+        x0 = Math.min(ship.hitMinX, full.minX); x1 = Math.max(ship.hitMaxX, full.maxX);
+        y0 = Math.min(ship.hitMinY, full.minY); y1 = Math.max(ship.hitMaxY, full.maxY);
+        if (x0 > x1 || y0 > y1)
+          continue;
+        depth = ship.depth;
+        vt = ship.vt.clone();
+        matrix = ship.matrix.clone();
+        for (q = 0; q < 50; q++) {
+          x = x0 - 2 + random.nextInt(x1 - x0 + 5);
+          y = y0 - 2 + random.nextInt(y1 - y0 + 5);
+          inside = false;
+          for (j = 0; j < full.numPolygons; j++)
+            inside |= TGObject.inside(full.polygons[j], x, y);
+          hit = ship.hit(world.viewpoint, TGWorld.MAG, xoffset, yoffset, x, y, probe);
+          points++;
+          if (hit)
+            hits++;
+          if (hit != inside)
+            differ++;
+        }
+        if (ship.depth != depth || !Arrays.equals(ship.vt, vt) || !Arrays.equals(ship.matrix, matrix))
+          differ++;
+      }
+    }
+    System.out.println("hits:        " + ticks + " ticks, " + points + " points (" + hits + " hit), " + differ + " differ");
+    return differ == 0;
+  }
+
+  // Play games part way with the aim gunner, rendering in between ticks, and save
+  // them. Each is restored into a new world, or over a world of the same size part
+  // way through another game, and saved again, which must give the same snapshot.
+  // Then both worlds play on, the restored one with renders in between ticks, and
+  // their checksums are compared after every tick.
+
+  static boolean verifySnapshots(int games) {
+
+    TGWorld world, copy;
+    TGGunner a, b;
+    ByteBuffer saved, again;
+    Random random;
+    String d;
+    int game, t, ships, debris, differ;
+    long ticks;
+
+    random = new Random(1);
+    ticks = differ = 0;
+    for (game = 0; game < games; game++) {
+      ships = new int[] { 6, 100, 500 }[game % 3];
+      debris = new int[] { TGWorld.MAX_DEBRIS, 200, 1000 }[game % 3];
+      world = new TGWorld(width, height, ships, debris, 1 + game);
+      a = new TGAimGunner();
+      world.initGame();
+      for (t = 0; t < 100 + 97 * game && world.gameState == TGWorld.PLAY; t++) {
+        a.aim(world);
+        world.step();
+        world.render(random.nextDouble());
+      }
+      saved = ByteBuffer.allocate(TGSnapshot.size(world));
+      TGSnapshot.save(world, saved);
+      saved.flip();
+      if (game % 2 == 0)
+        copy = TGSnapshot.newWorld(saved.duplicate());
+      else {
+        copy = new TGWorld(width, height, ships, debris, ~game);
+        b = new TGAimGunner();
+        copy.initGame();
+        for (t = 0; t < 200 && copy.gameState == TGWorld.PLAY; t++) {
+          b.aim(copy);
+          copy.step();
+        }
+        TGSnapshot.restore(copy, saved.duplicate());
+      }
+      again = ByteBuffer.allocate(TGSnapshot.size(copy));
+      TGSnapshot.save(copy, again);
+      again.flip();
+      d = TGSnapshot.diff(saved, again);
+      b = new TGAimGunner();
+      for (t = 0; d == null && t < LOOP_TICKS && world.gameState == TGWorld.PLAY; t++) {
+        a.aim(world);
+        world.step();
+        b.aim(copy);
+        copy.step();
+        copy.render(random.nextDouble());
+        if (world.checksum() != copy.checksum())
+          d = "tick " + t;
+      }
+      ticks += t;
+      if (d != null) {
+        System.out.println("game " + game + " differs: " + d.split("\n")[0]);
+        differ++;
+      }
+    }
+    System.out.println("snapshots:   " + games + " games, " + ticks + " ticks, " + differ + " differ");
+    return differ == 0;
+  }
+
+  // The angle of a face to the viewpoint as the original code found it, given the
+  // transformed points and the indices of the face's first three.
+
+  static double oldAngle(double[] vt, int i0, int i1, int i2, TGPoint v) {
+
+    double ax, ay, az, bx, by, bz;
+    double s, t, u;
+    double mx, my, mz;
+    double dot, div;
+
+    i0 *= 3; i1 *= 3; i2 *= 3;
+    ax = vt[i1] - vt[i0]; ay = vt[i1 + 1] - vt[i0 + 1]; az = vt[i1 + 2] - vt[i0 + 2];
+    bx = vt[i2] - vt[i1]; by = vt[i2 + 1] - vt[i1 + 1]; bz = vt[i2 + 2] - vt[i1 + 2];
+    s =   ay * bz - by * az;
+    t = -(ax * bz - bx * az);
+    u =   ax * by - bx * ay;
+    mx = v.xt - vt[i1]; my = v.yt - vt[i1 + 1]; mz = v.zt - vt[i1 + 2];
+    dot = mx * s + my * t + mz * u;
+    div = Math.sqrt(mx * mx + my * my + mz * mz) *
+          Math.sqrt(s * s + t * t + u * u);
+    if (div == 0)
+      return 0;
+    return Math.acos(dot / div);
+  }
+
+  // Copy a mesh without its levels of detail, so objects made from it are always
+  // drawn in full.
+
+  static TGMesh fullDetail(TGMesh mesh) {
+
+    TGMeshBuilder b;
+    TGFace face;
+    int i, j;
+
+    b = new TGMeshBuilder();
+    for (i = 0; i < mesh.numVertices; i++)
+      b.addVertice(new TGPoint(mesh.vo[3 * i], mesh.vo[3 * i + 1], mesh.vo[3 * i + 2]));
+    for (i = 0; i < mesh.numFaces; i++) {
+      face = new TGFace();
+      for (j = mesh.faceOffsets[i]; j < mesh.faceOffsets[i + 1]; j++)
+        face.addIndice(mesh.faceIndices[j]);
+      b.addFace(face);
+    }
+    return b.build(false);
+  }
+
+  // Make a mixer with no line for the game's sound effects, or return null if the
+  // clips cannot be found.
+
+  static TGMixer nullMixer() {
+
+    java.net.URL url;
+    TGAssets assets;
+    TGMixer mixer;
+    int i;
+
+    url = TGBench.class.getResource(TGSound.CLIP_FILES[0]);
+    if (url == null)
+      return null;
+    assets = new TGAssets(url);
+    assets.all.join();
+    for (i = 0; i < assets.clips.length; i++)
+      if (assets.clips[i] == null)
+        return null;
+    System.out.println("loaded:      " + assets.total + " files in " + (assets.endTime - assets.startTime) / 1000000 + " ms");
+    mixer = new TGMixer(assets.clips, null);
+    mixer.start();
+    return mixer;
+  }
+}
@@ -11,6 +11,19 @@
 
   <applet code="TailGunner.class" width=w height=h></applet>
 
+  Optional parameters:
+
+  <param name="fps" value="60">       Screen updates per second.
+  <param name="ships" value="6">      Enemy ships in play at once.
+  <param name="debris" value="20">    Pieces of explosion debris.
+  <param name="seed" value="42">      Seed for the game's random numbers.
+  <param name="record" value="f.tgr"> Record the game to a file, for replaying
+                                      with "java TGReplay f.tgr".
+  <param name="autoplay" value="true">
+                                      Let the computer play.
+  <param name="resume" value="f.tgs"> Save the game to a file when stopped,
+                                      and pick it up from there next time.
+
   Mouse Controls:
 
   Mouse   - Moves Crosshairs
@@ -21,13 +34,21 @@
   S - Start Game
   P - Toggle Pause
   M - Toggle Sound
+  F - Toggle Frame Statistics
+  A - Toggle Autoplay
 
 ******************************************************************************/
 
 import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
 import java.net.*;
+import java.nio.*;
 import java.util.*;
-import java.applet.AudioClip;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+import javax.sound.sampled.*;
 import java.applet.Applet;
 
 /******************************************************************************
@@ -132,13 +153,15 @@ class TGFace {
 
   // Fields:
 
-  Vector indices;
+  int[] indices;    // Indices into the object's vertice list.
+  int   count;      // Number of indices used.
 
   // Constructors:
 
   public TGFace() {
 
-    this.indices = new Vector();
+    this.indices = new int[4];
+    this.count = 0;
   }
 
   // Methods:
@@ -147,74 +170,40 @@ class TGFace {
 
   public void addIndice(int i) {
 
-    this.indices.addElement(new Integer(i));
+    int[] a;
+
+    if (this.count == this.indices.length) {
+      a = new int[2 * this.indices.length];
+      System.arraycopy(this.indices, 0, a, 0, this.count);
+      this.indices = a;
+    }
+    this.indices[this.count++] = i;
   }
 }
 
 /******************************************************************************
-  The TGObject class defines a set of points and faces for a three-dimensional
-  object. The right-hand rule applies to the order of the points in each face
-  so that one side will be considered the outer (and visible) side.
-
-  When a TGObject is rendered, a set of two-dimensional polygons is created for
-  each visible
-  face. These should be used for drawing the object. There is also a master
-  list of all TGObjects that have been rendered. The objects should be drawn in
-  the order given by this list so that more distant objects are drawn before
-  closer ones.
+  The TGMeshBuilder class collects points and faces for a TGMesh.
 ******************************************************************************/
 
-class TGObject {
+class TGMeshBuilder {
 
   // Fields:
 
-  Vector vertices;       // Object shape data.
-  Vector faces;
-
-  double ax, ay, az;    // Rotation, scaling and translation values for object.
-  double m;
-  double dx, dy, dz;
-
-  Vector polygons;      // Two-dimensional representation of object.
-  Vector angles;        // Angle with respect to viewpoint.
-  Vector depths;        // Minimum depths of each face.
-
-  // A list of all rendered three-dimensional objects.
-
-  static Vector list = new Vector();
+  int      numVertices;
+  double[] vo;
+  int      numFaces;
+  int[]    faceIndices;
+  int[]    faceOffsets;
 
   // Constructors:
 
-  public TGObject() {
-
-    this.vertices = new Vector();
-    this.ax = this.ay = this.az = 0.0;
-    this.m = 1.0;
-    this.dx = this.dy = this.dz = 0.0;
-    this.faces = new Vector();
-    this.polygons = new Vector();
-    this.angles = new Vector();
-    this.depths = new Vector();
-  }
-
-  // Create by copying an existing three-dimensional object.
-
-  public TGObject(TGObject o) {
-
-    int i;
+  public TGMeshBuilder() {
 
-    this.vertices = new Vector();
-    for (i = 0; i < o.vertices.size(); i++)
-      this.vertices.addElement(o.vertices.elementAt(i));
-    this.ax = o.ax; this.ay = o.ay; this.az = o.az;
-    this.m = o.m;
-    this.dx = o.dx; this.dy = o.dy; this.dz = o.dz;
-    this.faces = new Vector();
-    for (i = 0; i < o.faces.size(); i++)
-      this.faces.addElement(o.faces.elementAt(i));
-    this.polygons = new Vector();
-    this.angles = new Vector();
-    this.depths = new Vector();
+    this.numVertices = 0;
+    this.vo = new double[48];
+    this.numFaces = 0;
+    this.faceIndices = new int[64];
+    this.faceOffsets = new int[17];
   }
 
   // Methods:
@@ -223,1480 +212,5502 @@ class TGObject {
 
   public void addVertice(TGPoint v) {
 
-    this.vertices.addElement(v);
+    double[] a;
+    int n;
+
+    n = 3 * this.numVertices;
+    if (n + 3 > this.vo.length) {
+      a = new double[2 * this.vo.length];
+      System.arraycopy(this.vo, 0, a, 0, n);
+      this.vo = a;
+    }
+    this.vo[n] = v.xo; this.vo[n + 1] = v.yo; this.vo[n + 2] = v.zo;
+    this.numVertices++;
   }
 
   // Add a face.
 
   public void addFace(TGFace f) {
 
-    this.faces.addElement(f);
-  }
+    int[] a;
+    int n;
 
-  // Render each face by projecting its points and creating a two-dimensional polygon.
+    n = this.faceOffsets[this.numFaces];
+    if (n + f.count > this.faceIndices.length) {
+      a = new int[Math.max(n + f.count, 2 * this.faceIndices.length)];
+      System.arraycopy(this.faceIndices, 0, a, 0, n);
+      this.faceIndices = a;
+    }
+    System.arraycopy(f.indices, 0, this.faceIndices, n, f.count);
+    if (this.numFaces + 2 > this.faceOffsets.length) {
+      a = new int[2 * this.faceOffsets.length + 1];
+      System.arraycopy(this.faceOffsets, 0, a, 0, this.numFaces + 1);
+      this.faceOffsets = a;
+    }
+    this.faceOffsets[++this.numFaces] = n + f.count;
+  }
 
-  public void render(TGPoint v, double mag, int xoffset, int yoffset) {
+  // Check if there is already a face with the same points in the same order,
+  // starting from any of them.
 
-    int i, j, k;
-    Integer index;
-    Polygon polygon;
-    TGPoint point;
-    TGPoint[] p;
-    TGFace face;
-    double angle;
-    double d1;
-    Double d2;
-    boolean inserted;
+  public boolean hasFace(TGFace f) {
 
-    // Project each point.
+    int i, j, k, start;
 
-    for (i = 0; i < this.vertices.size(); i++) {
-      point = (TGPoint) this.vertices.elementAt(i);
-      point.transform(this.ax, this.ay, this.az, this.m, this.dx, this.dy, this.dz);
-      point.project(v);
+    for (i = 0; i < this.numFaces; i++) {
+      start = this.faceOffsets[i];
+      if (this.faceOffsets[i + 1] - start != f.count)
+        continue;
+      for (j = 0; j < f.count; j++) {
+        for (k = 0; k < f.count; k++)
+          if (this.faceIndices[start + (j + k) % f.count] != f.indices[k])
+            break;
+        if (k == f.count)
+          return true;
+      }
     }
+    return false;
+  }
 
-    // Build the two-dimensional polygons using face data.
+  // Make the mesh, with or without simpler levels of detail.
 
-    this.polygons.removeAllElements();
-    this.angles.removeAllElements();
-    this.depths.removeAllElements();
+  public TGMesh build(boolean levels) {
 
-    d1 = 0;
-    for (i = 0; i < this.faces.size(); i++) {
+    return new TGMesh(this, levels);
+  }
+}
 
-      // Build the polygon.
+/******************************************************************************
+  The TGMesh class holds the shape of a three-dimensional object: its points
+  and faces, with the outward normal of each face and a bounding sphere. The
+  right-hand rule applies to the order of the points in each face so that one
+  side will be considered the outer (and visible) side.
+
+  Shape data is kept packed in flat arrays. Each vertice takes three
+  consecutive entries (x, y, z). The indices of all faces are stored one after
+  the other in a single array, face i using entries faceOffsets[i] up to (but
+  not including) faceOffsets[i + 1].
+
+  A mesh never changes once made, so any number of objects can share it, on
+  any number of threads. Each TGObject keeps its own position and transformed
+  points.
+******************************************************************************/
 
-      polygon = new Polygon();
-      face = (TGFace) this.faces.elementAt(i);
-      for (j = 0; j < face.indices.size(); j++) {
-        index = (Integer) face.indices.elementAt(j);
-        k = index.intValue();
-        point = (TGPoint) this.vertices.elementAt(k);
-        polygon.addPoint((int) Math.round((mag * point.xp) + xoffset),
-               (2 * yoffset) - Math.round((int) (mag * point.yp) + yoffset));
+class TGMesh {
 
-        // Get the minimum depth of all points in face.
+  // Constants.
 
-        if (j == 0 || point.zp > d1)
-          d1 = point.zp;
-      }
-
-      // Find the angle of the face with respect to the viewpoint. Only add the polygon
-      // if the outside of the face is visible (right-hand rule).
-
-      p = new TGPoint[3];
-      index = (Integer) face.indices.elementAt(0);
-      p[0] = (TGPoint) this.vertices.elementAt(index.intValue());
-      index = (Integer) face.indices.elementAt(1);
-      p[1] = (TGPoint) this.vertices.elementAt(index.intValue());
-      index = (Integer) face.indices.elementAt(2);
-      p[2] = (TGPoint) this.vertices.elementAt(index.intValue());
-      angle = calcAngle(p, v);
-
-      // Insert the face according to depth.
-
-      if (angle < Math.PI / 2) {
-        k = 0;
-        inserted = false;
-        do {
-          if (k < this.polygons.size()) {
-            d2 = (Double) this.depths.elementAt(k);
-            if (d1 < d2.doubleValue()) {
-              this.polygons.insertElementAt(polygon, k);
-              this.angles.insertElementAt(new Double(angle), k);
-              this.depths.insertElementAt(new Double(d1), k);
-              inserted = true;
-            }
-          }
-          k++;
-        } while (k < this.polygons.size() && !inserted);
-        if (!inserted) {
-              this.polygons.addElement(polygon);
-              this.angles.addElement(new Double(angle));
-              this.depths.addElement(new Double(d1));
-        }
-      }
-    }
+  static final TGMesh EMPTY = new TGMeshBuilder().build(false);
+
+  // Fields:
 
-    // Add object to the master list.
+  final int      numVertices;
+  final double[] vo;             // Points in three space.
+  final int      numFaces;
+  final int[]    faceIndices;    // Vertice indices for all faces.
+  final int[]    faceOffsets;    // Start of each face in faceIndices.
+  final double[] normals;        // Unit normal of each face.
+  final double[] sphere;         // Bounding sphere (center and radius).
+  final int      maxFace;        // Most points in any face.
+  final TGMesh[] levels;         // Levels of detail, if any, starting with this.
 
-    this.insert();
-  }
+  // Constructors:
 
-  // Find the angle of a face with respect to the viewpoint.
+  public TGMesh(TGMeshBuilder b, boolean levels) {
+
+    int i, i0, i1, i2, max;
+    double[] vo, n, s;
+    double ax, ay, az, bx, by, bz;
+    double x, y, z, len;
+
+    // Copy the shape data.
+
+    this.numVertices = b.numVertices;
+    this.vo = vo = new double[3 * b.numVertices];
+    System.arraycopy(b.vo, 0, vo, 0, vo.length);
+    this.numFaces = b.numFaces;
+    this.faceOffsets = new int[b.numFaces + 1];
+    System.arraycopy(b.faceOffsets, 0, this.faceOffsets, 0, b.numFaces + 1);
+    this.faceIndices = new int[this.faceOffsets[b.numFaces]];
+    System.arraycopy(b.faceIndices, 0, this.faceIndices, 0, this.faceIndices.length);
+
+    // Find a sphere around all the points, centered on their bounding box.
+
+    this.sphere = s = new double[4];
+    if (this.numVertices > 0) {
+      ax = bx = vo[0]; ay = by = vo[1]; az = bz = vo[2];
+      for (i = 3; i < 3 * this.numVertices; i += 3) {
+        ax = Math.min(ax, vo[i]);     bx = Math.max(bx, vo[i]);
+        ay = Math.min(ay, vo[i + 1]); by = Math.max(by, vo[i + 1]);
+        az = Math.min(az, vo[i + 2]); bz = Math.max(bz, vo[i + 2]);
+      }
+      s[0] = (ax + bx) / 2; s[1] = (ay + by) / 2; s[2] = (az + bz) / 2;
+      for (i = 0; i < 3 * this.numVertices; i += 3) {
+        x = vo[i] - s[0]; y = vo[i + 1] - s[1]; z = vo[i + 2] - s[2];
+        s[3] = Math.max(s[3], Math.sqrt(x * x + y * y + z * z));
+      }
+    }
 
-  private double calcAngle(TGPoint p[], TGPoint v) {
+    // Find the outward normal of each face from its first three points (right-hand
+    // rule). Faces too small to have one get a zero normal and are always drawn.
+
+    this.normals = n = new double[3 * this.numFaces];
+    max = 0;
+    for (i = 0; i < this.numFaces; i++) {
+      max = Math.max(max, this.faceOffsets[i + 1] - this.faceOffsets[i]);
+      i0 = 3 * this.faceIndices[this.faceOffsets[i]];
+      i1 = 3 * this.faceIndices[this.faceOffsets[i] + 1];
+      i2 = 3 * this.faceIndices[this.faceOffsets[i] + 2];
+      ax = vo[i1] - vo[i0]; ay = vo[i1 + 1] - vo[i0 + 1]; az = vo[i1 + 2] - vo[i0 + 2];
+      bx = vo[i2] - vo[i1]; by = vo[i2 + 1] - vo[i1 + 1]; bz = vo[i2 + 2] - vo[i1 + 2];
+      x =   ay * bz - by * az;
+      y = -(ax * bz - bx * az);
+      z =   ax * by - bx * ay;
+      len = Math.sqrt(x * x + y * y + z * z);
+      if (len > 0) {
+        n[3 * i] = x / len; n[3 * i + 1] = y / len; n[3 * i + 2] = z / len;
+      }
+    }
+    this.maxFace = max;
 
-    TGPoint a, b, m, n;
-    double s, t, u;
-    double dot, div;
-    double angle;
+    // Make the simplified shapes for each level of detail.
 
-    // Find a normal vector to the plane of the face.
+    if (levels) {
+      this.levels = new TGMesh[TGObject.LOD_RADII.length];
+      this.levels[0] = this;
+      for (i = 1; i < this.levels.length; i++) {
+        this.levels[i] = simplify(this.sphere[3] * i / 2);
+        if (this.levels[i].numFaces == 0)
+          this.levels[i] = this.levels[i - 1];
+      }
+    }
+    else
+      this.levels = null;
+  }
 
-    a = new TGPoint(p[1].xt - p[0].xt, p[1].yt - p[0].yt, p[1].zt - p[0].zt);
-    b = new TGPoint(p[2].xt - p[1].xt, p[2].yt - p[1].yt, p[2].zt - p[1].zt);
-    s =   a.yt * b.zt - b.yo * a.zt;
-    t = -(a.xt * b.zt - b.xo * a.zt);
-    u =   a.xt * b.yt - b.xo * a.yt;
-    n = new TGPoint(s, t, u);
+  // Methods:
 
-    // Find the view vector.
+  // Make a simpler copy by vertex clustering: the points are grouped in a grid of
+  // cubes of the given size and each group is replaced by its average. Faces left
+  // with less than three points are dropped.
 
-    m = new TGPoint(v.xt - p[1].xt, v.yt - p[1].yt, v.zt - p[1].zt);
+  private TGMesh simplify(double cell) {
 
-    // Find the angle between these two vectors.
+    TGMeshBuilder b;
+    int[] map, cx, cy, cz, count;
+    double[] sum;
+    int i, j, k, n, x, y, z, last;
+    TGFace face;
 
-    dot = m.xo * n.xt + m.yt * n.yt + m.zt * n.zt;
-    div = Math.sqrt(m.xt * m.xt + m.yt * m.yt + m.zt * m.zt) *
-          Math.sqrt(n.xt * n.xt + n.yt * n.yt + n.zt * n.zt);
-    if (div == 0)
-      return 0;
-    angle = Math.acos(dot / div);
-    return angle;
+    // Group the points.
+
+    map = new int[this.numVertices];
+    cx = new int[this.numVertices];
+    cy = new int[this.numVertices];
+    cz = new int[this.numVertices];
+    count = new int[this.numVertices];
+    sum = new double[3 * this.numVertices];
+    n = 0;
+    for (i = 0; i < this.numVertices; i++) {
+      x = (int) Math.floor((this.vo[3 * i]     - this.sphere[0]) / cell);
+      y = (int) Math.floor((this.vo[3 * i + 1] - this.sphere[1]) / cell);
+      z = (int) Math.floor((this.vo[3 * i + 2] - this.sphere[2]) / cell);
+      for (j = 0; j < n; j++)
+        if (cx[j] == x && cy[j] == y && cz[j] == z)
+          break;
+      if (j == n) {
+        cx[n] = x; cy[n] = y; cz[n] = z;
+        n++;
+      }
+      map[i] = j;
+      count[j]++;
+      sum[3 * j] += this.vo[3 * i]; sum[3 * j + 1] += this.vo[3 * i + 1]; sum[3 * j + 2] += this.vo[3 * i + 2];
+    }
+    b = new TGMeshBuilder();
+    for (j = 0; j < n; j++)
+      b.addVertice(new TGPoint(sum[3 * j] / count[j], sum[3 * j + 1] / count[j], sum[3 * j + 2] / count[j]));
+
+    // Rebuild the faces, leaving out repeated points and any face already added.
+
+    for (i = 0; i < this.numFaces; i++) {
+      face = new TGFace();
+      last = map[this.faceIndices[this.faceOffsets[i + 1] - 1]];
+      for (j = this.faceOffsets[i]; j < this.faceOffsets[i + 1]; j++) {
+        k = map[this.faceIndices[j]];
+        if (k != last)
+          face.addIndice(k);
+        last = k;
+      }
+      if (face.count >= 3 && !b.hasFace(face))
+        b.addFace(face);
+    }
+    return b.build(false);
   }
 
-  // Reset the list.
+  // Make a mesh of one face, copied twice, once in each direction, so both sides
+  // are visible. Used for explosion debris.
 
-  public static void reset() {
+  public TGMesh face(int i) {
 
-    list.removeAllElements();
+    TGMeshBuilder b;
+    TGFace face;
+    int j, k, n, start;
+
+    b = new TGMeshBuilder();
+    start = this.faceOffsets[i];
+    n = this.faceOffsets[i + 1] - start;
+    for (j = 0; j < n; j++) {
+      k = 3 * this.faceIndices[start + j];
+      b.addVertice(new TGPoint(this.vo[k], this.vo[k + 1], this.vo[k + 2]));
+    }
+    face = new TGFace();
+    for (j = 0; j < n; j++)
+      face.addIndice(j);
+    b.addFace(face);
+    face = new TGFace();
+    for (j = 0; j < n; j++)
+      face.addIndice(n - 1 - j);
+    b.addFace(face);
+    return b.build(false);
   }
+}
 
-  // Insert a three-dimensional object into the master list according to depth.
+/******************************************************************************
+  The TGObject class places a TGMesh in the world and renders it. Many objects
+  can share one mesh; each keeps its own position, transformed and projected
+  points, and polygons. Transformed and projected points take three
+  consecutive entries (x, y, z) for each vertice of the mesh.
 
-  private void insert() {
+  When a TGObject is rendered, a set of two-dimensional polygons is created for
+  each visible
+  face. These should be used for drawing the object. The polygons are reused
+  from frame to frame, so rendering does not create any new objects. Rendered
+  objects should be added to a TGDrawList, which gives the order their faces
+  should be drawn in so that more distant objects are drawn before closer
+  ones.
+******************************************************************************/
 
-    int i;
-    boolean inserted;
-    TGObject o;
+class TGObject {
 
-    // Insert the object according to depth.
+  // Constants.
 
-    i = 0;
-    inserted = false;
-    do {
-      if (i < list.size()) {
-        o = (TGObject) list.elementAt(i);
-        if (this.dz < o.dz) {
-          list.insertElementAt(this, i);
-          inserted = true;
-        }
-      }
-      i++;
-    } while (i < list.size() && !inserted);
-    if (!inserted)
-      list.addElement(this);
-  }
-}
+  static final double NEAR = 1.0;    // Closest distance to the viewpoint drawn.
 
-/******************************************************************************
-  The TGShip class extends the TGObject class and add values for color,
-  movement, etc.
-******************************************************************************/
+  // Levels of detail. Each level is used while the object's bounding sphere is
+  // smaller on the screen than the given radius in pixels. Below the last, the
+  // object is drawn as a single square. A level only changes once the size is past
+  // the boundary by the given fraction, so objects near it do not flicker.
 
-class TGShip extends TGObject {
+  static final double[] LOD_RADII = { 32, 16, 4 };
+  static final double   LOD_HYSTERESIS = 0.15;
+  static final int      SPRITE_SHADE = 192;
 
   // Fields:
 
-  int     type;        // Type of ship.
+  TGMesh   mesh;           // Shape, shared with other objects.
+  double[] vt;             // Points after transformations.
+  double[] vp;             // Two-dimensional points and depth after projection.
 
-  int     color;       // Color index.
-  double  speed;       // Speed.
-  double  a1, a2;      // Angles for movement along x- and y-axises.
-  double  c1, c2;      // Change values for above angles.
-  double  dist1;       // Distance from player.
-  double  dist2;       // Last distance from player.
-  boolean sounded;     // Sound effect played flag.
+  int      level;          // Level of detail last drawn.
+  double   size;           // Screen radius of the bounding sphere, in pixels.
 
-  boolean exploding;    // Explosion flag.
-  int     counter;      // Counter for explosions.
+  double ax, ay, az;    // Rotation, scaling and translation values for object.
+  double m;
+  double dx, dy, dz;
 
-  // Constructors:
+  double pax, pay, paz;    // Values as of the previous tick, for rendering in
+  double pdx, pdy, pdz;    // between ticks.
 
-  public TGShip() {
+  double depth;         // Distance of the object as last transformed.
 
-    // Initialize TGObject fields.
+  double[] matrix = new double[12];    // Combined transformation for this frame.
 
-    this.vertices = new Vector();
-    this.ax = this.ay = this.az = 0.0;
-    this.m = 1.0;
-    this.dx = this.dy = this.dz = 0.0;
-    this.faces = new Vector();
-    this.polygons = new Vector();
-    this.angles = new Vector();
-    this.depths = new Vector();
+  Polygon[] facePolygons;    // Polygon buffers, one for each face.
 
-    // Initialize new fields.
+  int       numPolygons;     // Two-dimensional representation of object.
+  Polygon[] polygons;
+  int[]     shades;          // Shade, from 0 to 255, by angle to viewpoint.
+  double[]  depths;          // Minimum depths of each face.
 
-    this.type = 0;
-    this.color = 0;
-    this.speed = 0;
-    this.a1 = 0;
-    this.a2 = 0;
-    this.c1 = 0;
-    this.c2 = 0;
-    this.dist1 = 0;
-    this.dist2 = 0;
-    this.sounded = false;
-    this.exploding = false;
-    this.counter = 0;
-  }
+  int minX, minY, maxX, maxY;    // Screen bounding box of the visible faces.
 
-  public TGShip(TGObject o) {
+  int hitMinX, hitMinY, hitMaxX, hitMaxY;    // Screen bounding box of the full-detail
+                                             // shape as of the last tick, for hitting.
 
-    int i;
+  double[] clipped;    // Projected points of a face clipped by the near plane.
 
-    // Copy source ship's TGObject fields.
-
-    this.vertices = new Vector();
-    for (i = 0; i < o.vertices.size(); i++)
-      this.vertices.addElement(o.vertices.elementAt(i));
-    this.ax = o.ax; this.ay = o.ay; this.az = o.az;
-    this.m = o.m;
-    this.dx = o.dx; this.dy = o.dy; this.dz = o.dz;
-    this.faces = new Vector();
-    for (i = 0; i < o.faces.size(); i++)
-      this.faces.addElement(o.faces.elementAt(i));
-    this.polygons = new Vector();
-    this.angles = new Vector();
-    this.depths = new Vector();
+  // Constructors:
 
-    // Initialize new fields.
+  public TGObject() {
 
-    this.type = 0;
-    this.color = 0;
-    this.speed = 0;
-    this.a1 = 0;
-    this.a2 = 0;
-    this.c1 = 0;
-    this.c2 = 0;
-    this.dist1 = 0;
-    this.dist2 = 0;
-    this.sounded = false;
-    this.exploding = false;
-    this.counter = 0;
+    this.vt = new double[0];
+    this.vp = new double[0];
+    setMesh(TGMesh.EMPTY);
   }
-}
-
-/******************************************************************************
-  The TGDebris class extends the TGShip class and adds values for rotation and
-  movement, etc.
-******************************************************************************/
 
-class TGDebris extends TGShip {
-
-  // Fields:
+  public TGObject(TGMesh mesh) {
 
-  double rx, ry, rz;    // Change values for rotation.
-  double mx, my, mz;    // Change values position.
+    this.vt = new double[0];
+    this.vp = new double[0];
+    setMesh(mesh);
+  }
 
-  boolean active;       // Active flag.
+  // Methods:
 
-  public TGDebris() {
+  // Take the given shape, at the origin with no rotation. The buffers used for
+  // rendering are kept if they are big enough, so an object can be reused for
+  // another one without allocating anything.
 
-    // Initialize TGObject fields.
+  public void setMesh(TGMesh mesh) {
 
-    this.vertices = new Vector();
+    this.mesh = mesh;
+    this.level = 0;
     this.ax = this.ay = this.az = 0.0;
     this.m = 1.0;
     this.dx = this.dy = this.dz = 0.0;
-    this.faces = new Vector();
-    this.polygons = new Vector();
-    this.angles = new Vector();
-    this.depths = new Vector();
+    this.savePose();
+    this.numPolygons = 0;
+    this.hitMinX = this.hitMinY = Integer.MAX_VALUE;
+    this.hitMaxX = this.hitMaxY = Integer.MIN_VALUE;
+    reserve(mesh.numVertices, mesh.numFaces, mesh.maxFace);
+  }
 
-    // Initialize new fields.
+  // Make sure the rendering buffers can hold the given number of points, faces,
+  // and points in a face.
 
-    this.rx = 0; this.ry = 0; this.rz = 0;
-    this.mx = 0; this.my = 0; this.mz =  0;
-    this.active = false;
+  public void reserve(int vertices, int faces, int points) {
+
+    if (3 * vertices > this.vt.length) {
+      this.vt = new double[3 * vertices];
+      this.vp = new double[3 * vertices];
+    }
+    if (this.facePolygons == null || faces > this.facePolygons.length ||
+        2 * points > this.facePolygons[0].xpoints.length)
+      allocPolygons(Math.max(faces, this.facePolygons == null ? 0 : this.facePolygons.length),
+                    Math.max(points, this.facePolygons == null ? 0 : this.facePolygons[0].xpoints.length / 2));
   }
 
-  public TGDebris(TGShip s, int i) {
+  // Set up polygon buffers for the given number of faces and points in a face.
 
-    int j;
-    TGPoint point;
-    TGFace face;
-    Integer index;
+  private void allocPolygons(int faces, int points) {
+
+    int i, n;
 
-    // Initialize TGObject fields using the specified face of the given ship.
+    // Every buffer is made big enough for the largest face, so it can be used for
+    // any face of a simpler level, with room for the points added by clipping.
+    // (The constructor would trim the arrays to npoints, so they are set directly.)
 
-    this.vertices = new Vector();
-    face = (TGFace) s.faces.elementAt(i);
-    for (j = 0; j < face.indices.size(); j++) {
-      index = (Integer) face.indices.elementAt(j);
-      point = (TGPoint) s.vertices.elementAt(index.intValue());
-      this.addVertice(point);
+    faces = Math.max(faces, 1);
+    n = Math.max(points, 4);
+    this.facePolygons = new Polygon[faces];
+    for (i = 0; i < faces; i++) {
+      this.facePolygons[i] = new Polygon();
+      this.facePolygons[i].xpoints = new int[2 * n];
+      this.facePolygons[i].ypoints = new int[2 * n];
     }
-    face = new TGFace();
-    for (j = 0; j < this.vertices.size(); j++)
-      face.addIndice(j);
-    this.addFace(face);
-    face = new TGFace();
-    for (j =  this.vertices.size() - 1; j >= 0; j--)
-      face.addIndice(j);
-    this.addFace(face);
+    this.polygons = new Polygon[faces];
+    this.shades = new int[faces];
+    this.depths = new double[faces];
+    this.clipped = new double[6 * n];
+  }
 
-    this.polygons = new Vector();
-    this.angles = new Vector();
-    this.depths = new Vector();
+  // Render each face by projecting its points and creating a two-dimensional polygon.
 
-    // Copy TGship fields.
+  public void render(TGPoint v, double mag, int xoffset, int yoffset) {
 
-    this.ax = s.ax; this.ay = s.ay; this.az = s.az;
-    this.m = s.m;
-    this.dx = s.dx; this.dy = s.dy; this.dz = s.dz;
-    this.color = s.color;
+    render(v, mag, xoffset, yoffset, 1.0);
   }
-}
 
-/******************************************************************************
-  Main applet code.
-******************************************************************************/
+  // Render the object at a point between its previous and current positions. An
+  // alpha of zero gives the previous position, one gives the current position.
+  // Only rendering at the current position moves the level of detail on and sets
+  // the bounds used for hitting, so renders in between ticks never change the
+  // game (see TGReplay).
 
-public class TailGunner extends Applet implements Runnable {
+  public void render(TGPoint v, double mag, int xoffset, int yoffset, double alpha) {
 
-  // Thread control variables.
+    int i, j, k, n, start, count, level;
+    int x, y, x0, y0, x1, y1;
+    double[] t, b, vt, vp, p, normals;
+    int[] faceIndices, faceOffsets;
+    TGMesh mesh;
+    Polygon polygon;
+    double nx, ny, nz, mx, my, mz;
+    double dot, d1, near;
+
+    mesh = this.mesh;
+    b = mesh.sphere;
+    level = 0;
+    this.numPolygons = 0;
+    this.minX = this.minY = Integer.MAX_VALUE;
+    this.maxX = this.maxY = Integer.MIN_VALUE;
+    if (alpha >= 1) {
+      this.hitMinX = this.hitMinY = Integer.MAX_VALUE;
+      this.hitMaxX = this.hitMaxY = Integer.MIN_VALUE;
+    }
 
-  Thread loadThread;
-  Thread loopThread;
+    // Skip the object if it is outside the view. Faces only need clipping if the
+    // object reaches the near plane.
+
+    setMatrix(alpha);
+    near = v.zt - NEAR;
+    if (!inView(v, mag, xoffset, yoffset))
+      return;
+    t = this.matrix;
+    if (t[8] * b[0] + t[9] * b[1] + t[10] * b[2] + t[11] + Math.abs(this.m) * b[3] <= near)
+      near = Double.POSITIVE_INFINITY;
+
+    // Pick the level of detail from the size on the screen.
+
+    if (mesh.levels != null) {
+      level = this.level;
+      while (level > 0 && this.size > LOD_RADII[level - 1] * (1 + LOD_HYSTERESIS))
+        level--;
+      while (level < LOD_RADII.length && this.size < LOD_RADII[level] * (1 - LOD_HYSTERESIS))
+        level++;
+      if (alpha >= 1) {
+        this.level = level;
+        if (level > 0)
+          hitBounds(v, mag, xoffset, yoffset);
+      }
+      if (level == LOD_RADII.length) {
+        renderSprite(v, mag, xoffset, yoffset);
+        return;
+      }
+      mesh = mesh.levels[level];
+    }
+    normals = mesh.normals;
+    faceIndices = mesh.faceIndices;
+    faceOffsets = mesh.faceOffsets;
 
-  // Constants.
+    // Project each point.
 
-  static final int DELAY =  50;    // Milliseconds between screen updates.
-  static final int MAG   = 100;    // Magnification for 3D objects.
+    transformPoints(mesh);
+    project(v, mesh.numVertices);
+    vt = this.vt;
+    vp = this.vp;
 
-  static final int DEMO = 1;    // Game states.
-  static final int PLAY = 2;
-  static final int END  = 3;
+    // Build the two-dimensional polygons using face data.
 
-  // Ship constants.
+    d1 = 0;
+    for (i = 0; i < mesh.numFaces; i++) {
+
+      // Only go on if the outside of the face is visible, which is when its normal
+      // points toward the viewpoint. (The matrix rotates and scales the normal the
+      // same way as the points.)
+
+      k = 3 * faceIndices[faceOffsets[i] + 1];
+      nx = t[0] * normals[3 * i] + t[1] * normals[3 * i + 1] + t[2]  * normals[3 * i + 2];
+      ny = t[4] * normals[3 * i] + t[5] * normals[3 * i + 1] + t[6]  * normals[3 * i + 2];
+      nz = t[8] * normals[3 * i] + t[9] * normals[3 * i + 1] + t[10] * normals[3 * i + 2];
+      mx = v.xt - vt[k]; my = v.yt - vt[k + 1]; mz = v.zt - vt[k + 2];
+      dot = mx * nx + my * ny + mz * nz;
+      if (dot <= 0 && (nx != 0 || ny != 0 || nz != 0))
+        continue;
+
+      // Clip the face if it crosses the near plane, or drop it if it is all behind.
+
+      start = faceOffsets[i];
+      count = faceOffsets[i + 1] - start;
+      p = vp;
+      if (near != Double.POSITIVE_INFINITY) {
+        n = clipFace(faceIndices, start, count, v, near);
+        if (n == 0)
+          continue;
+        if (n > 0) {
+          count = n;
+          p = this.clipped;
+        }
+      }
 
-  static final int    NUM_TYPES      =     4;
-  static final int    NUM_COLORS     =     6;
-  static final int    NUM_SHIPS      =     6;
-  static final int    START_DISTANCE = -1000;
-  static final int    SOUND_DISTANCE =  -150;
-  static final int    END_DISTANCE   =     0;
-  static final int    MAX_HORIZONTAL =   100;
-  static final int    MAX_VERTICAL   =    30;
-  static final int    MIN_SPEED      =     2;
-  static final int    MAX_SPEED      =     8;
-  static final double MAX_TURN       = Math.PI / 100;
-  static final int    EXPLODE_COUNT  = 100;
+      // Build the polygon and find its bounding box.
+
+      polygon = this.facePolygons[i];
+      polygon.npoints = count;
+      x0 = y0 = Integer.MAX_VALUE;
+      x1 = y1 = Integer.MIN_VALUE;
+      for (j = start, n = 0; n < count; j++, n++) {
+        k = (p == vp) ? 3 * faceIndices[j] : 3 * n;
+        x = (int) Math.round((mag * p[k]) + xoffset);
+        y = (2 * yoffset) - Math.round((int) (mag * p[k + 1]) + yoffset);
+        polygon.xpoints[n] = x;
+        polygon.ypoints[n] = y;
+        x0 = Math.min(x0, x); x1 = Math.max(x1, x);
+        y0 = Math.min(y0, y); y1 = Math.max(y1, y);
 
-  // Debris constants.
+        // Get the minimum depth of all points in face.
 
-  static final int    MAX_DEBRIS   = 20;
-  static final int    DEBRIS_COUNT = 50;
-  static final double MAX_SPIN     = Math.PI / 20;
+        if (n == 0 || p[k + 2] > d1)
+          d1 = p[k + 2];
+      }
 
-  // Demo mode constants.
+      // Keep the face along with its shade and depth. The faces are put in order
+      // later, along with those of all other objects, by a TGDrawList.
 
-  static final int DEMO_DISTANCE = -40;
-  static final int DEMO_COUNT    = 400;
+      polygon.invalidate();
+      k = this.numPolygons++;
+      this.polygons[k] = polygon;
+      this.shades[k] = shade(dot, mx * mx + my * my + mz * mz, nx * nx + ny * ny + nz * nz);
+      this.depths[k] = d1;
+      this.minX = Math.min(this.minX, x0); this.maxX = Math.max(this.maxX, x1);
+      this.minY = Math.min(this.minY, y0); this.maxY = Math.max(this.maxY, y1);
+    }
 
-  // Miscellaneous game constants.
+    // At full detail, what can be hit is what was drawn.
 
-  static final int BLAST_COUNT   =   5;
-  static final int END_COUNT     = 200;
-  static final int MAX_SHAKE     =   5;
-  static final int NUM_STARS     =  20;
-  static final int SHIELD_START  = 100;
-  static final int TARGET_WIDTH  =  60;
-  static final int TARGET_HEIGHT =  40;
+    if (alpha >= 1 && level == 0) {
+      this.hitMinX = this.minX; this.hitMaxX = this.maxX;
+      this.hitMinY = this.minY; this.hitMaxY = this.maxY;
+    }
+  }
 
-  // Game data.
+  // Find the screen bounding box of every point of the full-detail shape, for an
+  // object drawn at a simpler level. The matrix must already be set.
 
-  boolean loaded = false;
-  boolean firing;
-  boolean paused;
-  boolean sound;
-  int     gameState;
-  int     blastCounter;
-  int     endCounter;
-  int     mx, my;
-  int     score;
-  int     highScore;
-  int     shields;
+  private void hitBounds(TGPoint v, double mag, int xoffset, int yoffset) {
 
-  // Enemy ships.
+    int k, x, y;
+    double[] vp;
 
-  TGObject[] types    = new TGObject[NUM_TYPES];
-  double[]   typefrq  = {.30, .30, .20, .20};
-  int[]      typepts  = {125, 150, 100, 250};
-  double[]   typespd  = {1.15, 1.35, 1.00, 1.75};
-  double[]   typetrn  = {1.15, 1.15, 1.00, 1.25};
-  int[]      typedmg  = {2, 4, 5, 3};
-  String[]   typenme = { "F15 Fighter", "F17A Advanced Tactical Fighter", "F21 Fighter/Bomber", "SF-111 Interceptor" };
+    transformPoints(this.mesh);
+    project(v, this.mesh.numVertices);
+    vp = this.vp;
+    for (k = 0; k < 3 * this.mesh.numVertices; k += 3) {
+      x = (int) Math.round((mag * vp[k]) + xoffset);
+      y = (2 * yoffset) - Math.round((int) (mag * vp[k + 1]) + yoffset);
+      this.hitMinX = Math.min(this.hitMinX, x); this.hitMaxX = Math.max(this.hitMaxX, x);
+      this.hitMinY = Math.min(this.hitMinY, y); this.hitMaxY = Math.max(this.hitMaxY, y);
+    }
+  }
 
-  TGShip[] ships = new TGShip[NUM_SHIPS];
+  // Check if a screen point falls on a visible face of the object as of the last
+  // tick. Distant objects are drawn at a simpler level of detail, or as a square,
+  // but the shape that can be hit is always the full-detail one. That is projected
+  // again by the given scratch object, so nothing this object has rendered, or is
+  // still to render in between ticks, is touched.
 
-  // Explosion debris.
+  public boolean hit(TGPoint v, double mag, int xoffset, int yoffset, int x, int y, TGObject probe) {
 
-  TGDebris[] debris = new TGDebris[MAX_DEBRIS];
-  int debrisIndex = 0;
+    int i;
 
-  // Viewpoint.
+    if (x < this.hitMinX || x > this.hitMaxX || y < this.hitMinY || y > this.hitMaxY)
+      return false;
+    if (this.mesh.levels == null || this.level == 0) {
+      for (i = 0; i < this.numPolygons; i++)
+        if (inside(this.polygons[i], x, y))
+          return true;
+      return false;
+    }
+    probe.setMesh(this.mesh);
+    probe.ax = this.ax; probe.ay = this.ay; probe.az = this.az;
+    probe.m = this.m;
+    probe.dx = this.dx; probe.dy = this.dy; probe.dz = this.dz;
+    return probe.hitFull(v, mag, xoffset, yoffset, x, y);
+  }
 
-  TGPoint viewpoint;
+  // Project every face of the full-detail shape at the current position, the way
+  // render() would, and check each for the point.
 
-  // Screen size.
+  private boolean hitFull(TGPoint v, double mag, int xoffset, int yoffset, int x, int y) {
 
-  int scrnWidth;
-  int scrnHeight;
+    int i, j, k, n, start, count;
+    double[] t, b, vt, vp, p, normals;
+    int[] faceIndices, faceOffsets;
+    TGMesh mesh;
+    Polygon polygon;
+    double nx, ny, nz, mx, my, mz, near;
+
+    mesh = this.mesh;
+    b = mesh.sphere;
+    normals = mesh.normals;
+    faceIndices = mesh.faceIndices;
+    faceOffsets = mesh.faceOffsets;
+    setMatrix(1.0);
+    t = this.matrix;
+    near = v.zt - NEAR;
+    if (t[8] * b[0] + t[9] * b[1] + t[10] * b[2] + t[11] + Math.abs(this.m) * b[3] <= near)
+      near = Double.POSITIVE_INFINITY;
+    transformPoints(mesh);
+    project(v, mesh.numVertices);
+    vt = this.vt;
+    vp = this.vp;
+    polygon = this.facePolygons[0];
+
+    for (i = 0; i < mesh.numFaces; i++) {
+      k = 3 * faceIndices[faceOffsets[i] + 1];
+      nx = t[0] * normals[3 * i] + t[1] * normals[3 * i + 1] + t[2]  * normals[3 * i + 2];
+      ny = t[4] * normals[3 * i] + t[5] * normals[3 * i + 1] + t[6]  * normals[3 * i + 2];
+      nz = t[8] * normals[3 * i] + t[9] * normals[3 * i + 1] + t[10] * normals[3 * i + 2];
+      mx = v.xt - vt[k]; my = v.yt - vt[k + 1]; mz = v.zt - vt[k + 2];
+      if (mx * nx + my * ny + mz * nz <= 0 && (nx != 0 || ny != 0 || nz != 0))
+        continue;
+      start = faceOffsets[i];
+      count = faceOffsets[i + 1] - start;
+      p = vp;
+      if (near != Double.POSITIVE_INFINITY) {
+        n = clipFace(faceIndices, start, count, v, near);
+        if (n == 0)
+          continue;
+        if (n > 0) {
+          count = n;
+          p = this.clipped;
+        }
+      }
+      polygon.npoints = count;
+      for (j = start, n = 0; n < count; j++, n++) {
+        k = (p == vp) ? 3 * faceIndices[j] : 3 * n;
+        polygon.xpoints[n] = (int) Math.round((mag * p[k]) + xoffset);
+        polygon.ypoints[n] = (2 * yoffset) - Math.round((int) (mag * p[k + 1]) + yoffset);
+      }
+      if (inside(polygon, x, y))
+        return true;
+    }
+    return false;
+  }
 
-  // Stars.
+  // Draw the object as a square the size of its bounding sphere, centered on where
+  // the center of the sphere falls on the screen.
 
-  int starsX[] = new int[NUM_STARS];
-  int starsY[] = new int[NUM_STARS];
-  double starsAngle[] = new double[NUM_STARS];
-  double starsRadius[] = new double[NUM_STARS];
-  double starsMinRadius[] = new double[NUM_STARS];
+  private void renderSprite(TGPoint v, double mag, int xoffset, int yoffset) {
 
-  // Demo data.
+    double[] t, b;
+    double x, y, z, d;
+    int h, cx, cy;
+    Polygon polygon;
 
-  int demoIndex;
-  int demoCounter;
+    t = this.matrix;
+    b = this.mesh.sphere;
+    x = t[0] * b[0] + t[1] * b[1] + t[2]  * b[2] + t[3];
+    y = t[4] * b[0] + t[5] * b[1] + t[6]  * b[2] + t[7];
+    z = t[8] * b[0] + t[9] * b[1] + t[10] * b[2] + t[11];
+    d = v.zt - z;
+    cx = (int) Math.round((mag * (v.zt * x - v.xt * z) / d) + xoffset);
+    cy = yoffset - (int) (mag * (v.zt * y - v.yt * z) / d);
+    h = Math.max(1, (int) Math.round(this.size / 2));
+
+    polygon = this.facePolygons[0];
+    polygon.npoints = 4;
+    polygon.xpoints[0] = cx - h; polygon.ypoints[0] = cy - h;
+    polygon.xpoints[1] = cx + h; polygon.ypoints[1] = cy - h;
+    polygon.xpoints[2] = cx + h; polygon.ypoints[2] = cy + h;
+    polygon.xpoints[3] = cx - h; polygon.ypoints[3] = cy + h;
+    polygon.invalidate();
+    this.numPolygons = 1;
+    this.polygons[0] = polygon;
+    this.shades[0] = SPRITE_SHADE;
+    this.depths[0] = (v.zt * z) / d;
+    this.minX = cx - h; this.maxX = cx + h;
+    this.minY = cy - h; this.maxY = cy + h;
+  }
 
-  // Values for the offscreen image.
+  // Rotate, scale and translate each point. The transformations are combined into
+  // a single matrix so the trig is done once for the object, not for each point.
 
-  Dimension offDimension;
-  Image offImage;
-  Graphics offGraphics;
+  public void transform() {
 
-  // Font data.
+    transform(1.0);
+  }
 
-  Font font = new Font("Helvetica", Font.BOLD, 12);
-  FontMetrics fm = getFontMetrics(font);
-  int fontWidth = fm.getMaxAdvance();
-  int fontHeight = fm.getHeight();
+  public void transform(double alpha) {
 
-  Font smallFont = new Font("Dialog", font.PLAIN, 10);
-  FontMetrics smallFm = getFontMetrics(font);
-  int smallFontWidth = fm.getMaxAdvance();
-  int smallFontHeight = fm.getHeight();
+    setMatrix(alpha);
+    transformPoints(this.mesh);
+  }
 
-  // Sound clips.
+  // Build the matrix for the object's position at the given point between ticks,
+  // and note its depth.
 
-  AudioClip blastSound;
-  AudioClip debrisSound;
-  AudioClip explodeSound;
-  AudioClip fireSound;
-  AudioClip passingSound;
-  AudioClip targetedSound;
+  private void setMatrix(double alpha) {
 
-  // For tracking the loading of sound clips.
+    double[] t;
+
+    t = this.matrix;
+    if (alpha >= 1.0) {
+      setMatrix(t, this.ax, this.ay, this.az, this.m, this.dx, this.dy, this.dz);
+      this.depth = this.dz;
+    }
+    else {
+      setMatrix(t, lerpAngle(this.pax, this.ax, alpha), lerpAngle(this.pay, this.ay, alpha),
+                lerpAngle(this.paz, this.az, alpha), this.m,
+                this.pdx + alpha * (this.dx - this.pdx), this.pdy + alpha * (this.dy - this.pdy),
+                this.pdz + alpha * (this.dz - this.pdz));
+      this.depth = this.pdz + alpha * (this.dz - this.pdz);
+    }
+  }
 
-  int clipTotal   = 0;
-  int clipsLoaded = 0;
+  // Transform the points of the mesh, or of one of its levels of detail.
 
-  // Applet information.
+  private void transformPoints(TGMesh mesh) {
 
-  public String getAppletInfo() {
+    int i, k;
+    double[] t, vo, vt;
+    double x, y, z;
 
-    return("Tail Gunner, Version 1.01, Copyright 1998 by Mike Hall.");
+    t = this.matrix;
+    vo = mesh.vo;
+    vt = this.vt;
+    for (i = 0, k = 0; i < mesh.numVertices; i++, k += 3) {
+      x = vo[k]; y = vo[k + 1]; z = vo[k + 2];
+      vt[k]     = t[0] * x + t[1] * y + t[2]  * z + t[3];
+      vt[k + 1] = t[4] * x + t[5] * y + t[6]  * z + t[7];
+      vt[k + 2] = t[8] * x + t[9] * y + t[10] * z + t[11];
+    }
   }
 
-  public void init() {
+  // Check the bounding sphere against the view: the near plane and the four planes
+  // through the viewpoint and the edges of the screen. The sphere is moved by the
+  // current matrix, so setMatrix() must be called first.
+
+  private boolean inView(TGPoint v, double mag, int xoffset, int yoffset) {
+
+    double[] t, b;
+    double cx, cy, cz, r, ez, lo, hi;
+
+    t = this.matrix;
+    b = this.mesh.sphere;
+    cx = t[0] * b[0] + t[1] * b[1] + t[2]  * b[2] + t[3]  - v.xt;
+    cy = t[4] * b[0] + t[5] * b[1] + t[6]  * b[2] + t[7]  - v.yt;
+    cz = t[8] * b[0] + t[9] * b[1] + t[10] * b[2] + t[11] - v.zt;
+    r = Math.abs(this.m) * b[3];
+    ez = v.zt;
+
+    // Relative to the viewpoint, a point is in front of the near plane when z is at
+    // most -NEAR, and projects to x * ez / -z. Each edge of the screen is a plane
+    // ez * x + edge * z = 0 through the viewpoint.
+
+    if (cz - r >= -NEAR)
+      return false;
+    this.size = (-cz > r) ? mag * r * ez / -cz : Double.POSITIVE_INFINITY;
+    lo = -xoffset / mag - v.xt;
+    hi =  xoffset / mag - v.xt;
+    if ( ez * cx + hi * cz > r * Math.sqrt(ez * ez + hi * hi) ||
+        -ez * cx - lo * cz > r * Math.sqrt(ez * ez + lo * lo))
+      return false;
+    lo = -yoffset / mag - v.yt;
+    hi =  yoffset / mag - v.yt;
+    if ( ez * cy + hi * cz > r * Math.sqrt(ez * ez + hi * hi) ||
+        -ez * cy - lo * cz > r * Math.sqrt(ez * ez + lo * lo))
+      return false;
+    return true;
+  }
 
-    Frame frame;
-    Object parent;
-    Dimension d;
-    Graphics g;
-    TGFace face;
-    int i;
+  // Clip a face against the near plane (at depth near) and project the points that
+  // are left into the clipped array. Returns the number of points, zero if the face
+  // is all behind the plane, or -1 if it is all in front and needs no clipping.
 
-    // Take credit.
+  private int clipFace(int[] faceIndices, int start, int count, TGPoint v, double near) {
 
-    System.out.println("Tail Gunner, Version 1.01 Copyright 1998 by Mike Hall.");
+    int i, j, k, n;
+    double[] vt, c;
+    double s, x, y, z, d;
+    boolean in, lastIn;
 
-    // Set cursor to crosshairs.
+    vt = this.vt;
+    for (i = 0; i < count; i++)
+      if (vt[3 * faceIndices[start + i] + 2] > near)
+        break;
+    if (i == count)
+      return -1;
+    if (this.clipped.length < 6 * count)
+      this.clipped = new double[6 * count];
+    c = this.clipped;
+
+    n = 0;
+    j = 3 * faceIndices[start + count - 1];
+    lastIn = vt[j + 2] <= near;
+    for (i = 0; i < count; i++, j = k, lastIn = in) {
+      k = 3 * faceIndices[start + i];
+      in = vt[k + 2] <= near;
+
+      // Add the point where the edge crosses the plane, then the point itself if it
+      // is in front.
+
+      if (in != lastIn) {
+        s = (near - vt[j + 2]) / (vt[k + 2] - vt[j + 2]);
+        x = vt[j]     + s * (vt[k]     - vt[j]);
+        y = vt[j + 1] + s * (vt[k + 1] - vt[j + 1]);
+        z = near;
+        d = v.zt - z;
+        c[3 * n]     = (v.zt * x - v.xt * z) / d;
+        c[3 * n + 1] = (v.zt * y - v.yt * z) / d;
+        c[3 * n + 2] = (v.zt * z) / d;
+        n++;
+      }
+      if (in) {
+        c[3 * n]     = this.vp[k];
+        c[3 * n + 1] = this.vp[k + 1];
+        c[3 * n + 2] = this.vp[k + 2];
+        n++;
+      }
+    }
+    return n;
+  }
 
-    parent = getParent();
-    while (!(parent instanceof Frame))
-       parent = ((Component) parent).getParent();
-    frame = (Frame) parent;
-    frame.setCursor(Frame.CROSSHAIR_CURSOR);
+  // Remember the current rotation and translation as the previous ones.
 
-    // Initialize shape data for each ship type.
+  public void savePose() {
 
-    // Define type 1 ship.
+    this.pax = this.ax; this.pay = this.ay; this.paz = this.az;
+    this.pdx = this.dx; this.pdy = this.dy; this.pdz = this.dz;
+  }
 
-    types[0] = new TGObject();
-    types[0].addVertice(new TGPoint(-2,  1,   5));    // Fuselage.
-    types[0].addVertice(new TGPoint( 2,  1,   5));
-    types[0].addVertice(new TGPoint( 0,  0, -10));
-    types[0].addVertice(new TGPoint(-2, -1,   5));
-    types[0].addVertice(new TGPoint( 2, -1,   5));
-    types[0].addVertice(new TGPoint(-1, -1,   7));
-    types[0].addVertice(new TGPoint( 1, -1,   7));
-    face = new TGFace();
-    face.addIndice(0);
-    face.addIndice(1);
-    face.addIndice(2);
-    types[0].addFace(face);
-    face = new TGFace();
-    face.addIndice(6);
-    face.addIndice(5);
-    face.addIndice(3);
-    face.addIndice(2);
-    face.addIndice(4);
-    types[0].addFace(face);
-    face = new TGFace();
-    face.addIndice(4);
-    face.addIndice(2);
-    face.addIndice(1);
-    types[0].addFace(face);
-    face = new TGFace();
-    face.addIndice(0);
-    face.addIndice(2);
-    face.addIndice(3);
-    types[0].addFace(face);
-    face = new TGFace();
-    face.addIndice(0);
-    face.addIndice(5);
-    face.addIndice(6);
-    face.addIndice(1);
-    types[0].addFace(face);
-    face = new TGFace();
-    face.addIndice(1);
-    face.addIndice(6);
-    face.addIndice(4);
-    types[0].addFace(face);
-    face = new TGFace();
-    face.addIndice(0);
-    face.addIndice(3);
-    face.addIndice(5);
-    types[0].addFace(face);
-    types[0].addVertice(new TGPoint(5,  0,  -2));  // Port wing.
-    types[0].addVertice(new TGPoint(5, -1,  -2));
-    types[0].addVertice(new TGPoint(5,  0, -12));
-    face = new TGFace();
-    face.addIndice(1);
-    face.addIndice(7);
-    face.addIndice(9);
-    face.addIndice(2);
-    types[0].addFace(face);
-    face = new TGFace();
-    face.addIndice(2);
-    face.addIndice(9);
-    face.addIndice(8);
-    face.addIndice(4);
-    types[0].addFace(face);
-    face = new TGFace();
-    face.addIndice(7);
-    face.addIndice(1);
-    face.addIndice(4);
-    face.addIndice(8);
-    types[0].addFace(face);
-    face = new TGFace();
-    face.addIndice(7);
-    face.addIndice(8);
-    face.addIndice(9);
-    types[0].addFace(face);
-    types[0].addVertice(new TGPoint(10,  3, -7));
-    face = new TGFace();
-    face.addIndice(7);
-    face.addIndice(10);
-    face.addIndice(9);
-    types[0].addFace(face);
-    face = new TGFace();
-    face.addIndice(9);
-    face.addIndice(10);
-    face.addIndice(8);
-    types[0].addFace(face);
-    face = new TGFace();
-    face.addIndice(7);
-    face.addIndice(8);
-    face.addIndice(10);
-    types[0].addFace(face);
-    types[0].addVertice(new TGPoint(-5,  0,  -2));  // Starboard wing.
-    types[0].addVertice(new TGPoint(-5, -1,  -2));
-    types[0].addVertice(new TGPoint(-5,  0, -12));
-    face = new TGFace();
-    face.addIndice(0);
-    face.addIndice(2);
-    face.addIndice(13);
-    face.addIndice(11);
-    types[0].addFace(face);
-    face = new TGFace();
-    face.addIndice(2);
-    face.addIndice(3);
-    face.addIndice(12);
-    face.addIndice(13);
-    types[0].addFace(face);
-    face = new TGFace();
-    face.addIndice(0);
-    face.addIndice(11);
-    face.addIndice(12);
-    face.addIndice(3);
-    types[0].addFace(face);
-    face = new TGFace();
-    face.addIndice(11);
-    face.addIndice(13);
-    face.addIndice(12);
-    types[0].addFace(face);
-    types[0].addVertice(new TGPoint(-10,  3, -7));
-    face = new TGFace();
-    face.addIndice(11);
-    face.addIndice(13);
-    face.addIndice(14);
-    types[0].addFace(face);
-    face = new TGFace();
-    face.addIndice(14);
-    face.addIndice(13);
-    face.addIndice(12);
-    types[0].addFace(face);
-    face = new TGFace();
-    face.addIndice(14);
-    face.addIndice(12);
-    face.addIndice(11);
-    types[0].addFace(face);
-
-    // Define type 2 ship.
-
-    types[1] = new TGObject();
-    types[1].addVertice(new TGPoint(-1, -1,  7));    // Fuselage.
-    types[1].addVertice(new TGPoint( 1, -1,  7));
-    types[1].addVertice(new TGPoint( 2,  1,  3));
-    types[1].addVertice(new TGPoint(-2,  1,  3));
-    types[1].addVertice(new TGPoint( 3, -1,  3));
-    types[1].addVertice(new TGPoint( 0,  0, -7));
-    types[1].addVertice(new TGPoint(-3, -1,  3));
-    face = new TGFace();
-    face.addIndice(0);
-    face.addIndice(1);
-    face.addIndice(2);
-    face.addIndice(3);
-    types[1].addFace(face);
-    face = new TGFace();
-    face.addIndice(5);
-    face.addIndice(3);
-    face.addIndice(2);
-    types[1].addFace(face);
-    face = new TGFace();
-    face.addIndice(4);
-    face.addIndice(2);
-    face.addIndice(1);
-    types[1].addFace(face);
-    face = new TGFace();
-    face.addIndice(6);
-    face.addIndice(0);
-    face.addIndice(3);
-    types[1].addFace(face);
-    face = new TGFace();
-    face.addIndice(6);
-    face.addIndice(5);
-    face.addIndice(4);
-    face.addIndice(1);
-    face.addIndice(0);
-    types[1].addFace(face);
-    types[1].addVertice(new TGPoint( 9,   3,  -1));    // Port wing.
-    types[1].addVertice(new TGPoint( 9, 2.5,  -1));
-    types[1].addVertice(new TGPoint( 9,   3, -10));
-    types[1].addVertice(new TGPoint(12,   1,  -3));
-    types[1].addVertice(new TGPoint(12,   1, -10));
-    face = new TGFace();
-    face.addIndice(2);
-    face.addIndice(7);
-    face.addIndice(9);
-    face.addIndice(5);
-    types[1].addFace(face);
-    face = new TGFace();
-    face.addIndice(8);
-    face.addIndice(4);
-    face.addIndice(5);
-    face.addIndice(9);
-    types[1].addFace(face);
-    face = new TGFace();
-    face.addIndice(7);
-    face.addIndice(10);
-    face.addIndice(11);
-    face.addIndice(9);
-    types[1].addFace(face);
-    face = new TGFace();
-    face.addIndice(11);
-    face.addIndice(10);
-    face.addIndice(8);
-    face.addIndice(9);
-    types[1].addFace(face);
-    face = new TGFace();
-    face.addIndice(2);
-    face.addIndice(4);
-    face.addIndice(8);
-    face.addIndice(7);
-    types[1].addFace(face);
-    face = new TGFace();
-    face.addIndice(7);
-    face.addIndice(8);
-    face.addIndice(10);
-    types[1].addFace(face);
-    types[1].addVertice(new TGPoint( -9,   3,  -1));    // Starboard wing.
-    types[1].addVertice(new TGPoint( -9, 2.5,  -1));
-    types[1].addVertice(new TGPoint( -9,   3, -10));
-    types[1].addVertice(new TGPoint(-12,   1,  -3));
-    types[1].addVertice(new TGPoint(-12,   1, -10));
-    types[1].addFace(face);
-    face = new TGFace();
-    face.addIndice(3);
-    face.addIndice(5);
-    face.addIndice(14);
-    face.addIndice(12);
-    types[1].addFace(face);
-    face = new TGFace();
-    face.addIndice(5);
-    face.addIndice(6);
-    face.addIndice(13);
-    face.addIndice(14);
-    types[1].addFace(face);
-    face = new TGFace();
-    face.addIndice(12);
-    face.addIndice(14);
-    face.addIndice(16);
-    face.addIndice(15);
-    types[1].addFace(face);
-    face = new TGFace();
-    face.addIndice(13);
-    face.addIndice(15);
-    face.addIndice(16);
-    face.addIndice(14);
-    types[1].addFace(face);
-    face = new TGFace();
-    face.addIndice(3);
-    face.addIndice(12);
-    face.addIndice(13);
-    face.addIndice(6);
-    types[1].addFace(face);
-    face = new TGFace();
-    face.addIndice(12);
-    face.addIndice(15);
-    face.addIndice(13);
-    types[1].addFace(face);
-
-    // Define type 3 ship.
-
-    types[2] = new TGObject();
-    types[2].addVertice(new TGPoint( 1, -.5,  7));    // Fuselage.
-    types[2].addVertice(new TGPoint(-1, -.5,  7));
-    types[2].addVertice(new TGPoint( 3,   0,  2));
-    types[2].addVertice(new TGPoint(-3,   0,  2));
-    types[2].addVertice(new TGPoint( 1, 1.5,  5));
-    types[2].addVertice(new TGPoint(-1, 1.5,  5));
-    types[2].addVertice(new TGPoint( 2,   1,  1));
-    types[2].addVertice(new TGPoint(-2,   1,  1));
-    types[2].addVertice(new TGPoint( 0,   0, -9));
-    face = new TGFace();
-    face.addIndice(0);
-    face.addIndice(4);
-    face.addIndice(5);
-    face.addIndice(1);
-    types[2].addFace(face);
-    face = new TGFace();
-    face.addIndice(4);
-    face.addIndice(6);
-    face.addIndice(7);
-    face.addIndice(5);
-    types[2].addFace(face);
-    face = new TGFace();
-    face.addIndice(0);
-    face.addIndice(6);
-    face.addIndice(4);
-    types[2].addFace(face);
-    face = new TGFace();
-    face.addIndice(0);
-    face.addIndice(2);
-    face.addIndice(6);
-    types[2].addFace(face);
-    face = new TGFace();
-    face.addIndice(1);
-    face.addIndice(5);
-    face.addIndice(3);
-    types[2].addFace(face);
-    face = new TGFace();
-    face.addIndice(3);
-    face.addIndice(5);
-    face.addIndice(7);
-    types[2].addFace(face);
-    face = new TGFace();
-    face.addIndice(0);
-    face.addIndice(1);
-    face.addIndice(3);
-    face.addIndice(2);
-    types[2].addFace(face);
-    face = new TGFace();
-    face.addIndice(6);
-    face.addIndice(8);
-    face.addIndice(7);
-    types[2].addFace(face);
-    face = new TGFace();
-    face.addIndice(2);
-    face.addIndice(8);
-    face.addIndice(6);
-    types[2].addFace(face);
-    face = new TGFace();
-    face.addIndice(3);
-    face.addIndice(7);
-    face.addIndice(8);
-    types[2].addFace(face);
-    face = new TGFace();
-    face.addIndice(2);
-    face.addIndice(3);
-    face.addIndice(8);
-    types[2].addFace(face);
-    types[2].addVertice(new TGPoint(12, 1, -10));  // Port wing.
-    face = new TGFace();
-    face.addIndice(6);
-    face.addIndice(9);
-    face.addIndice(8);
-    types[2].addFace(face);
-    face = new TGFace();
-    face.addIndice(2);
-    face.addIndice(8);
-    face.addIndice(9);
-    types[2].addFace(face);
-    face = new TGFace();
-    face.addIndice(2);
-    face.addIndice(9);
-    face.addIndice(6);
-    types[2].addFace(face);
-    types[2].addVertice(new TGPoint(-12, 1, -10));  // Starboard wing.
-    face = new TGFace();
-    face.addIndice(7);
-    face.addIndice(8);
-    face.addIndice(10);
-    types[2].addFace(face);
-    face = new TGFace();
-    face.addIndice(3);
-    face.addIndice(10);
-    face.addIndice(8);
-    types[2].addFace(face);
-    face = new TGFace();
-    face.addIndice(3);
-    face.addIndice(7);
-    face.addIndice(10);
-    types[2].addFace(face);
-
-    // Define type 4 ship.
-
-    types[3] = new TGObject();
-    types[3].addVertice(new TGPoint(-1,  0,  4));    // Fuselage.
-    types[3].addVertice(new TGPoint(-2, .5,  5));
-    types[3].addVertice(new TGPoint(-1, -1,  7));
-    types[3].addVertice(new TGPoint( 1, -1,  7));
-    types[3].addVertice(new TGPoint( 2, .5,  5));
-    types[3].addVertice(new TGPoint( 1,  0,  4));
-    types[3].addVertice(new TGPoint( 2, -1,  5));
-    types[3].addVertice(new TGPoint( 1, -1,  4));
-    types[3].addVertice(new TGPoint(-1, -1,  4));
-    types[3].addVertice(new TGPoint(-2, -1,  5));
-    types[3].addVertice(new TGPoint( 0,  1, -5));
-    types[3].addVertice(new TGPoint( 0, -1, -5));
-    face = new TGFace();
-    face.addIndice(0);
-    face.addIndice(1);
-    face.addIndice(4);
-    face.addIndice(5);
-    types[3].addFace(face);
-    face = new TGFace();
-    face.addIndice(1);
-    face.addIndice(2);
-    face.addIndice(3);
-    face.addIndice(4);
-    types[3].addFace(face);
-    face = new TGFace();
-    face.addIndice(0);
-    face.addIndice(1);
-    face.addIndice(4);
-    face.addIndice(5);
-    types[3].addFace(face);
-    face = new TGFace();
-    face.addIndice(0);
-    face.addIndice(5);
-    face.addIndice(10);
-    types[3].addFace(face);
-    face = new TGFace();
-    face.addIndice(2);
-    face.addIndice(9);
-    face.addIndice(8);
-    face.addIndice(11);
-    face.addIndice(7);
-    face.addIndice(6);
-    face.addIndice(3);
-    types[3].addFace(face);
-    face = new TGFace();
-    face.addIndice(3);
-    face.addIndice(6);
-    face.addIndice(4);
-    types[3].addFace(face);
-    face = new TGFace();
-    face.addIndice(6);
-    face.addIndice(7);
-    face.addIndice(5);
-    face.addIndice(4);
-    types[3].addFace(face);
-    face = new TGFace();
-    face.addIndice(2);
-    face.addIndice(1);
-    face.addIndice(9);
-    types[3].addFace(face);
-    face = new TGFace();
-    face.addIndice(1);
-    face.addIndice(0);
-    face.addIndice(8);
-    face.addIndice(9);
-    types[3].addFace(face);
-    types[3].addVertice(new TGPoint(9,  0, -12));  // Port wing.
-    face = new TGFace();
-    face.addIndice(5);
-    face.addIndice(12);
-    face.addIndice(10);
-    types[3].addFace(face);
-    face = new TGFace();
-    face.addIndice(7);
-    face.addIndice(11);
-    face.addIndice(12);
-    types[3].addFace(face);
-    face = new TGFace();
-    face.addIndice(5);
-    face.addIndice(7);
-    face.addIndice(12);
-    types[3].addFace(face);
-    face = new TGFace();
-    face.addIndice(12);
-    face.addIndice(11);
-    face.addIndice(10);
-    types[3].addFace(face);
-    types[3].addVertice(new TGPoint(-9,  0, -12));    // Starboard wing.
-    face = new TGFace();
-    face.addIndice(0);
-    face.addIndice(10);
-    face.addIndice(13);
-    types[3].addFace(face);
-    face = new TGFace();
-    face.addIndice(13);
-    face.addIndice(11);
-    face.addIndice(8);
-    types[3].addFace(face);
-    face = new TGFace();
-    face.addIndice(13);
-    face.addIndice(8);
-    face.addIndice(0);
-    types[3].addFace(face);
-    face = new TGFace();
-    face.addIndice(13);
-    face.addIndice(10);
-    face.addIndice(11);
-    types[3].addFace(face);
+  // Interpolate between two angles, going the short way around the circle (angles
+  // are wrapped when they pass 2 * PI).
 
-    // Set viewpoint.
+  private static double lerpAngle(double a, double b, double alpha) {
 
-    viewpoint = new TGPoint(0, 0, 10);
+    double d;
 
-    // Find the size of the screen and fonts.
+    d = b - a;
+    if (d > Math.PI)
+      d -= 2 * Math.PI;
+    else if (d < -Math.PI)
+      d += 2 * Math.PI;
+    return a + alpha * d;
+  }
 
-    g = getGraphics();
-    d = size();
-    scrnWidth = d.width;
-    scrnHeight = d.height;
+  // Project each transformed point onto a two-dimensional plane, as seen from the
+  // given viewpoint.
 
-    g.setFont(font);
-    fm = g.getFontMetrics();
-    fontWidth = fm.getMaxAdvance();
-    fontHeight = fm.getHeight();
+  public void project(TGPoint v) {
 
-    g.setFont(smallFont);
-    smallFm = g.getFontMetrics();
-    smallFontWidth = smallFm.getMaxAdvance();
-    smallFontHeight = smallFm.getHeight();
+    project(v, this.mesh.numVertices);
+  }
 
-    // Initialize stars.
+  // Project only the first n points (those of a level of detail).
 
-    for (i = 0; i < NUM_STARS; i++)
-      initStar(i);
+  private void project(TGPoint v, int n) {
 
-    highScore = 0;
-    sound = true;
-    initGame();
-    initDemo();
+    int i, k;
+    double[] vt, vp;
+    double d;
+
+    vt = this.vt;
+    vp = this.vp;
+    for (i = 0, k = 0; i < n; i++, k += 3) {
+      d = v.zt - vt[k + 2];
+      if (d != 0) {
+        vp[k]     = (v.zt * vt[k]     - v.xt * vt[k + 2]) / d;
+        vp[k + 1] = (v.zt * vt[k + 1] - v.yt * vt[k + 2]) / d;
+        vp[k + 2] = (v.zt * vt[k + 2]) / d;
+      }
+      else {
+        vp[k] = 0.0;
+        vp[k + 1] = 0.0;
+        vp[k + 2] = 0.0;
+      }
+    }
   }
 
-  public void initGame() {
+  // Build a 3x4 matrix that rotates about the x-, y- and z-axises (in that order),
+  // scales and translates a point, the same as TGPoint.transform() does.
+
+  public static void setMatrix(double[] t, double ax, double ay, double az, double m, double dx, double dy, double dz) {
+
+    double cx, sx, cy, sy, cz, sz;
+
+    cx = Math.cos(ax); sx = Math.sin(ax);
+    cy = Math.cos(ay); sy = Math.sin(ay);
+    cz = Math.cos(az); sz = Math.sin(az);
+
+    t[0]  = m * (cz * cy);
+    t[1]  = m * (-cz * sy * sx - sz * cx);
+    t[2]  = m * (-cz * sy * cx + sz * sx);
+    t[3]  = dx;
+    t[4]  = m * (sz * cy);
+    t[5]  = m * (-sz * sy * sx + cz * cx);
+    t[6]  = m * (-sz * sy * cx - cz * sx);
+    t[7]  = dy;
+    t[8]  = m * sy;
+    t[9]  = m * (cy * sx);
+    t[10] = m * (cy * cx);
+    t[11] = dz;
+  }
 
+  // Find the shade of a face from the dot product of its normal and the view vector
+  // and their squared lengths. The shade falls from 255 facing the viewpoint to 0
+  // edge on, in even steps of angle. Rather than take the arc cosine, the cosine is
+  // compared with a table of the cosines where each step starts.
+
+  static final double[] SHADE_STEPS = new double[256];
+
+  static {
     int i;
 
-    // Initialize game data.
+    for (i = 0; i < 256; i++)
+      SHADE_STEPS[i] = Math.cos(i * Math.PI / 510);
+  }
 
-    gameState = PLAY;
-    paused = false;
-    firing = false;
-    blastCounter = 0;
-    score = 0;
-    shields = SHIELD_START;
+  private static int shade(double dot, double m2, double n2) {
 
-    // Initialize ships.
+    double c;
+    int lo, hi, mid;
 
-    for (i = 0; i < NUM_SHIPS; i++)
-      initShip(i);
+    if (m2 == 0 || n2 == 0)
+      return 255;
+    c = dot / Math.sqrt(m2 * n2);
 
-    // Initialize debris.
+    // Count the steps passed, i.e. the largest i with c <= SHADE_STEPS[i].
 
-    for (i = 0; i < MAX_DEBRIS; i++)
-      debris[i] = new TGDebris();
+    lo = 0; hi = 255;
+    while (lo < hi) {
+      mid = (lo + hi + 1) >> 1;
+      if (c <= SHADE_STEPS[mid])
+        lo = mid;
+      else
+        hi = mid - 1;
+    }
+    return 255 - lo;
+  }
 
+  // Check if a point lies inside a polygon. This is the same even-odd test used by
+  // Polygon.contains() but does not need the polygon's bounding box, which would
+  // have to be created anew each time the polygon changes.
+
+  public static boolean inside(Polygon p, int x, int y) {
+
+    int i, hits;
+    int lastx, lasty, curx, cury, leftx;
+    double test1, test2;
+
+    if (p.npoints <= 2)
+      return false;
+    hits = 0;
+    lastx = p.xpoints[p.npoints - 1];
+    lasty = p.ypoints[p.npoints - 1];
+    for (i = 0; i < p.npoints; lastx = curx, lasty = cury, i++) {
+      curx = p.xpoints[i];
+      cury = p.ypoints[i];
+      if (cury == lasty)
+        continue;
+      if (curx < lastx) {
+        if (x >= lastx)
+          continue;
+        leftx = curx;
+      }
+      else {
+        if (x >= curx)
+          continue;
+        leftx = lastx;
+      }
+      if (cury < lasty) {
+        if (y < cury || y >= lasty)
+          continue;
+        if (x < leftx) {
+          hits++;
+          continue;
+        }
+        test1 = x - curx;
+        test2 = y - cury;
+      }
+      else {
+        if (y < lasty || y >= cury)
+          continue;
+        if (x < leftx) {
+          hits++;
+          continue;
+        }
+        test1 = x - lastx;
+        test2 = y - lasty;
+      }
+      if (test1 < (test2 / (lasty - cury) * (lastx - curx)))
+        hits++;
+    }
+    return (hits & 1) != 0;
   }
+}
 
-  public void endGame() {
+/******************************************************************************
+  The TGDrawList class holds all the three-dimensional objects rendered for a
+  frame and puts their visible faces in drawing order.
+
+  Objects are added in any order as they are rendered. Once all are in, sort()
+  orders the objects by distance (most distant first) and then sorts every
+  visible face of every object by depth in a single pass. The faces are then
+  distributed, keeping that order, to their objects' places in the list. The
+  sorts are stable radix sorts on primitive keys so the cost stays linear in
+  the number of objects and faces.
+******************************************************************************/
 
-    gameState = END;
-    endCounter = END_COUNT;
+class TGDrawList {
+
+  // Fields:
+
+  TGObject[] objects;       // Rendered objects, sorted by depth after sort().
+  int        numObjects;
+
+  int[]      entryObjects;  // Index of the object for each face in drawing order.
+  int[]      entryPolygons; // Index of the polygon within that object.
+  int        numEntries;
+
+  private long[] keys;      // Sort keys and values, and scratch space.
+  private int[]  values;
+  private long[] tmpKeys;
+  private int[]  tmpValues;
+  private int[]  counts = new int[256];
+  private TGObject[] tmpObjects;
+
+  // Constructors:
+
+  public TGDrawList() {
+
+    this.objects = new TGObject[16];
+    this.tmpObjects = new TGObject[16];
+    this.numObjects = 0;
+    this.entryObjects = new int[64];
+    this.entryPolygons = new int[64];
+    this.numEntries = 0;
+    this.keys = new long[64];
+    this.values = new int[64];
+    this.tmpKeys = new long[64];
+    this.tmpValues = new int[64];
   }
 
-  public void start() {
+  // Methods:
 
-    if (loopThread == null) {
-      loopThread = new Thread(this);
-      loopThread.start();
+  // Empty the list.
+
+  public void reset() {
+
+    this.numObjects = 0;
+    this.numEntries = 0;
+  }
+
+  // Add a rendered object.
+
+  public void add(TGObject o) {
+
+    if (this.numObjects == this.objects.length) {
+      this.objects = copyOf(this.objects, 2 * this.objects.length);
+      this.tmpObjects = new TGObject[this.objects.length];
+    }
+    this.objects[this.numObjects++] = o;
+  }
+
+  // Sort the objects by depth and build the drawing order of all visible faces.
+
+  public void sort() {
+
+    int i, j, k, n;
+    TGObject o;
+    TGObject[] t;
+
+    // Order the objects from the most distant to the closest.
+
+    n = this.numObjects;
+    ensure(n);
+    for (i = 0; i < n; i++) {
+      this.keys[i] = doubleKey(this.objects[i].depth);
+      this.values[i] = i;
+    }
+    sort(n);
+    for (i = 0; i < n; i++)
+      this.tmpObjects[i] = this.objects[this.values[i]];
+    t = this.objects;
+    this.objects = this.tmpObjects;
+    this.tmpObjects = t;
+
+    // Sort all visible faces by depth. Each value packs the object's place in the
+    // list with the face's polygon index (objects have fewer than 256 faces).
+
+    n = 0;
+    for (i = 0; i < this.numObjects; i++)
+      n += this.objects[i].numPolygons;
+    ensure(n);
+    if (n > this.entryObjects.length || this.numObjects > this.entryObjects.length) {
+      this.entryObjects = new int[Math.max(this.keys.length, this.numObjects)];
+      this.entryPolygons = new int[this.entryObjects.length];
+    }
+    n = 0;
+    for (i = 0; i < this.numObjects; i++) {
+      o = this.objects[i];
+      for (j = 0; j < o.numPolygons; j++) {
+        this.keys[n] = doubleKey(o.depths[j]);
+        this.values[n] = (i << 8) | j;
+        n++;
+      }
+    }
+    sort(n);
+
+    // Find where each object's faces start in the drawing order, then place each
+    // face there in depth order. The entry arrays are used as scratch space until
+    // they are filled in at the end.
+
+    k = 0;
+    for (i = 0; i < this.numObjects; i++) {
+      this.entryObjects[i] = k;
+      k += this.objects[i].numPolygons;
+    }
+    for (i = 0; i < n; i++) {
+      j = this.values[i];
+      this.tmpValues[this.entryObjects[j >>> 8]++] = j;
     }
-    if (!loaded && loadThread == null) {
-      loadThread = new Thread(this);
-      loadThread.start();
+    for (i = 0; i < n; i++) {
+      j = this.tmpValues[i];
+      this.entryObjects[i] = j >>> 8;
+      this.entryPolygons[i] = j & 0xff;
     }
+    this.numEntries = n;
   }
 
-  public void stop() {
+  // Stable sort of the first n keys (as unsigned values) along with their values.
+  // Short lists use an insertion sort, longer ones a byte-wise radix sort that skips
+  // any byte which is the same in every key.
+
+  private void sort(int n) {
+
+    int i, j, shift, sum, c;
+    long k;
+    int v;
+    long[] ka, kb, tk;
+    int[] va, vb, tv;
+    int[] counts;
+
+    ka = this.keys;
+    va = this.values;
+    if (n < 32) {
+      for (i = 1; i < n; i++) {
+        k = ka[i];
+        v = va[i];
+        j = i;
+        while (j > 0 && Long.compareUnsigned(k, ka[j - 1]) < 0) {
+          ka[j] = ka[j - 1];
+          va[j] = va[j - 1];
+          j--;
+        }
+        ka[j] = k;
+        va[j] = v;
+      }
+      return;
+    }
 
-    if (loopThread != null) {
-      loopThread.stop();
-      loopThread = null;
+    kb = this.tmpKeys;
+    vb = this.tmpValues;
+    counts = this.counts;
+    for (shift = 0; shift < 64; shift += 8) {
+      for (i = 0; i < 256; i++)
+        counts[i] = 0;
+      for (i = 0; i < n; i++)
+        counts[(int) (ka[i] >>> shift) & 0xff]++;
+      if (counts[(int) (ka[0] >>> shift) & 0xff] == n)
+        continue;
+      sum = 0;
+      for (i = 0; i < 256; i++) {
+        c = counts[i];
+        counts[i] = sum;
+        sum += c;
+      }
+      for (i = 0; i < n; i++) {
+        j = counts[(int) (ka[i] >>> shift) & 0xff]++;
+        kb[j] = ka[i];
+        vb[j] = va[i];
+      }
+      tk = ka; ka = kb; kb = tk;
+      tv = va; va = vb; vb = tv;
     }
-    if (loadThread != null) {
-      loadThread.stop();
-      loadThread = null;
+
+    // Leave the result in the keys and values arrays.
+
+    if (ka != this.keys) {
+      System.arraycopy(ka, 0, kb, 0, n);
+      System.arraycopy(va, 0, vb, 0, n);
     }
   }
 
-  public void run() {
+  // Make sure the sort arrays can hold n entries.
 
-    long startTime;
+  private void ensure(int n) {
 
-    // Lower this thread's priority and get the current time.
+    if (n <= this.keys.length)
+      return;
+    n = Math.max(n, 2 * this.keys.length);
+    this.keys = new long[n];
+    this.values = new int[n];
+    this.tmpKeys = new long[n];
+    this.tmpValues = new int[n];
+  }
 
-    Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
-    startTime = System.currentTimeMillis();
+  private static TGObject[] copyOf(TGObject[] a, int n) {
 
-    // Run thread for loading sounds.
+    TGObject[] b;
 
-    if (!loaded && Thread.currentThread() == loadThread) {
-      loadSounds();
-      loaded = true;
-      loadThread.stop();
-    }
+    b = new TGObject[n];
+    System.arraycopy(a, 0, b, 0, a.length);
+    return b;
+  }
 
-    // This is the main loop.
+  // Convert a number to a key whose unsigned order matches the number's order.
 
-    while (Thread.currentThread() == loopThread) {
+  static long doubleKey(double d) {
 
-      // In playing or ending mode, update moving objects and advance blast counter if active.
+    long b;
 
-      if (!paused && (gameState == PLAY || gameState == END)) {
-        TGObject.reset();
-        updateStars();
-        updateShips();
-        updateDebris();
-        if (blastCounter > 0)
-          blastCounter--;
-      }
+    b = Double.doubleToLongBits(d);
+    return b ^ ((b >> 63) | Long.MIN_VALUE);
+  }
+}
+
+/******************************************************************************
+  The TGGrid class is a uniform grid over the screen for finding the ship
+  under a point. Each cell lists the ships whose screen bounding boxes overlap
+  it, in drawing order, so a query only has to test the ships near the point
+  and can stop at the first (nearest) one hit.
+******************************************************************************/
+
+class TGGrid {
+
+  // Constants.
+
+  static final int CELL_SIZE = 32;    // Width and height of a cell in pixels.
+
+  // Fields:
+
+  int   columns, rows;
+  int   xoffset, yoffset;    // Middle of the screen, as the ships were rendered.
+  int[] cellStart;     // Start of each cell's entries in cellItems.
+  int[] cellItems;     // Places in the draw list of the ships in each cell.
+  int[] counts;        // Scratch space for building.
+  TGObject probe;      // Scratch object for hit-testing at full detail.
 
-      // In game ending mode, advance ending counter and start demo when it hits zero.
+  // Constructors:
+
+  public TGGrid() {
+
+    this.columns = this.rows = 0;
+    this.cellStart = new int[1];
+    this.cellItems = new int[64];
+    this.counts = new int[1];
+    this.probe = new TGObject();
+  }
 
-      if (!paused && gameState == END && --endCounter <= 0)
-          initDemo();
+  // Methods:
+
+  // Index the ships in a sorted draw list for a screen of the given size, by the
+  // bounds of their full-detail shapes as of the last tick.
 
-      // In demo mode.
+  public void build(TGDrawList list, int width, int height) {
+
+    int i, n, r, c, c0, c1, r0, r1, cells;
+    TGObject o;
 
-      if (!paused && gameState == DEMO)
-        updateDemo();
+    this.columns = Math.max(1, (width + CELL_SIZE - 1) / CELL_SIZE);
+    this.rows = Math.max(1, (height + CELL_SIZE - 1) / CELL_SIZE);
+    this.xoffset = width / 2;
+    this.yoffset = height / 2;
+    cells = this.columns * this.rows;
+    if (this.counts.length < cells + 1) {
+      this.counts = new int[cells + 1];
+      this.cellStart = new int[cells + 1];
+    }
+    for (i = 0; i <= cells; i++)
+      this.counts[i] = 0;
+
+    // Count the ships in each cell, then find where each cell's list starts.
+
+    n = 0;
+    for (i = 0; i < list.numObjects; i++) {
+      o = list.objects[i];
+      if (o instanceof TGDebris || o.hitMinX > o.hitMaxX)
+        continue;
+      c0 = column(o.hitMinX);
+      c1 = column(o.hitMaxX);
+      r0 = row(o.hitMinY);
+      r1 = row(o.hitMaxY);
+      for (r = r0; r <= r1; r++)
+        for (c = c0; c <= c1; c++) {
+          this.counts[r * this.columns + c]++;
+          n++;
+        }
+    }
+    for (i = 0; i < cells; i++) {
+      this.cellStart[i + 1] = this.cellStart[i] + this.counts[i];
+      this.counts[i] = this.cellStart[i];
+    }
+    if (this.cellItems.length < n)
+      this.cellItems = new int[Math.max(n, 2 * this.cellItems.length)];
+
+    // Fill in the lists, keeping the drawing order.
+
+    for (i = 0; i < list.numObjects; i++) {
+      o = list.objects[i];
+      if (o instanceof TGDebris || o.hitMinX > o.hitMaxX)
+        continue;
+      c0 = column(o.hitMinX);
+      c1 = column(o.hitMaxX);
+      r0 = row(o.hitMinY);
+      r1 = row(o.hitMaxY);
+      for (r = r0; r <= r1; r++)
+        for (c = c0; c <= c1; c++)
+          this.cellItems[this.counts[r * this.columns + c]++] = i;
+    }
+  }
+
+  // Find the nearest ship with a visible face of its full-detail shape under the
+  // given point, or null if there is none. The ships must have been rendered at
+  // the current tick from the given viewpoint.
+
+  public TGShip pick(TGDrawList list, TGPoint v, double mag, int x, int y) {
+
+    int i, cell;
+    TGObject o;
+
+    cell = row(y) * this.columns + column(x);
+    for (i = this.cellStart[cell + 1] - 1; i >= this.cellStart[cell]; i--) {
+      o = list.objects[this.cellItems[i]];
+      if (o.hit(v, mag, this.xoffset, this.yoffset, x, y, this.probe))
+        return (TGShip) o;
+    }
+    return null;
+  }
+
+  // Find the column or row for a screen position. Anything off the screen goes in
+  // the cells along the edge.
+
+  private int column(int x) {
+
+    return Math.max(0, Math.min(this.columns - 1, x / CELL_SIZE));
+  }
+
+  private int row(int y) {
+
+    return Math.max(0, Math.min(this.rows - 1, y / CELL_SIZE));
+  }
+}
+
+/******************************************************************************
+  The TGRenderTask class renders a range of objects on the fork/join pool,
+  splitting the range in two until the pieces are small enough to render
+  directly.
+******************************************************************************/
+
+class TGRenderTask extends RecursiveAction {
+
+  // Constants.
+
+  private static final long serialVersionUID = 1L;
+
+  static final int THRESHOLD = 32;    // Objects to render without splitting.
+
+  // Fields:
+
+  TGObject[] objects;
+  int        from, to;
+  TGPoint    v;
+  double     mag;
+  int        xoffset, yoffset;
+  double     alpha;
+
+  // Constructors:
+
+  public TGRenderTask(TGObject[] objects, int from, int to, TGPoint v, double mag, int xoffset, int yoffset, double alpha) {
+
+    this.objects = objects;
+    this.from = from;
+    this.to = to;
+    this.v = v;
+    this.mag = mag;
+    this.xoffset = xoffset;
+    this.yoffset = yoffset;
+    this.alpha = alpha;
+  }
+
+  // Methods:
+
+  protected void compute() {
+
+    int i, mid;
+
+    if (this.to - this.from <= THRESHOLD) {
+      for (i = this.from; i < this.to; i++)
+        this.objects[i].render(this.v, this.mag, this.xoffset, this.yoffset, this.alpha);
+      return;
+    }
+    mid = (this.from + this.to) >>> 1;
+    invokeAll(new TGRenderTask(this.objects, this.from, mid, this.v, this.mag, this.xoffset, this.yoffset, this.alpha),
+              new TGRenderTask(this.objects, mid, this.to, this.v, this.mag, this.xoffset, this.yoffset, this.alpha));
+  }
+}
+
+/******************************************************************************
+  The TGShip class extends the TGObject class and add values for color,
+  movement, etc.
+******************************************************************************/
+
+class TGShip extends TGObject {
+
+  // Fields:
+
+  TGShipTemplate template;    // Type of ship, shared by all ships of the type.
+  int     type;        // Index of the type.
+  int     id;          // Place in the world's ships, then its debris.
+
+  int     color;       // Color index.
+  double  speed;       // Speed.
+  double  a1, a2;      // Angles for movement along x- and y-axises.
+  double  c1, c2;      // Change values for above angles.
+  double  dist1;       // Distance from player.
+  double  dist2;       // Last distance from player.
+  boolean sounded;     // Sound effect played flag.
+
+  boolean exploding;    // Explosion flag.
+  int     counter;      // Counter for explosions.
+
+  // Constructors:
+
+  public TGShip() {
+
+    // Initialize new fields.
+
+    this.type = 0;
+    this.color = 0;
+    this.speed = 0;
+    this.a1 = 0;
+    this.a2 = 0;
+    this.c1 = 0;
+    this.c2 = 0;
+    this.dist1 = 0;
+    this.dist2 = 0;
+    this.sounded = false;
+    this.exploding = false;
+    this.counter = 0;
+  }
+
+  public TGShip(TGShipTemplate t) {
+
+    reset(t);
+  }
+
+  // Methods:
+
+  // Make this a new ship of the given type, or an empty one if it is null, reusing
+  // its buffers.
+
+  public void reset(TGShipTemplate t) {
+
+    // Take the template's shape.
+
+    setMesh(t == null ? TGMesh.EMPTY : t.mesh);
+    this.template = t;
+
+    // Initialize new fields.
+
+    this.type = 0;
+    this.color = 0;
+    this.speed = 0;
+    this.a1 = 0;
+    this.a2 = 0;
+    this.c1 = 0;
+    this.c2 = 0;
+    this.dist1 = 0;
+    this.dist2 = 0;
+    this.sounded = false;
+    this.exploding = false;
+    this.counter = 0;
+  }
+}
+
+/******************************************************************************
+  The TGDebris class extends the TGShip class and adds values for rotation and
+  movement, etc.
+******************************************************************************/
+
+class TGDebris extends TGShip {
+
+  // Fields:
+
+  double rx, ry, rz;    // Change values for rotation.
+  double mx, my, mz;    // Change values position.
+
+  int face;             // Face of the ship's type this is made from.
+
+  boolean active;       // Active flag.
+
+  public TGDebris() {
+
+    // Initialize new fields.
+
+    this.rx = 0; this.ry = 0; this.rz = 0;
+    this.mx = 0; this.my = 0; this.mz =  0;
+    this.active = false;
+  }
+
+  // Create a piece with room for a face of up to the given number of points.
+
+  public TGDebris(int points) {
+
+    this();
+    reserve(points, 2, points);
+  }
+
+  public TGDebris(TGShip s, int i) {
+
+    this();
+    set(s, i);
+  }
+
+  // Methods:
+
+  // Make this a piece of debris from the specified face of the given ship. The
+  // shape is the one its template made for that face, so nothing is copied.
+
+  public void set(TGShip s, int i) {
+
+    // Initialize TGObject fields using the face.
+
+    setMesh(s.template.debris[i]);
+    this.type = s.type;
+    this.face = i;
+
+    // Copy TGship fields.
+
+    this.ax = s.ax; this.ay = s.ay; this.az = s.az;
+    this.m = s.m;
+    this.dx = s.dx; this.dy = s.dy; this.dz = s.dz;
+    this.savePose();
+    this.color = s.color;
+  }
+}
+
+/******************************************************************************
+  The TGSound interface is used to report sound effects from the game.
+******************************************************************************/
+
+interface TGSound {
+
+  // Sound effects.
+
+  static final int BLAST    = 0;
+  static final int DEBRIS   = 1;
+  static final int EXPLODE  = 2;
+  static final int FIRE     = 3;
+  static final int PASSING  = 4;
+  static final int TARGETED = 5;
+
+  // The file for each, how many copies may play at once and the shortest time
+  // between starts in milliseconds.
+
+  static final String[] CLIP_FILES     = { "blast.au", "debris.au", "explode.au", "fire.au", "passing.au", "targeted.au" };
+  static final int[]    CLIP_VOICES    = {   1,   2,   3,   2,   2,   1 };
+  static final int[]    CLIP_INTERVALS = { 250, 100,  50, 100, 100, 100 };
+
+  public void play(int clip);
+}
+
+/******************************************************************************
+  The TGClip class holds a sound effect decoded from a Sun audio (.au) file
+  into 16-bit samples at the mixer's rate, so playing it takes no decoding. It
+  also holds the limits the mixer applies to it.
+******************************************************************************/
+
+class TGClip {
+
+  // Constants.
+
+  static final int MAGIC = 0x2e736e64;    // ".snd"
+
+  // Mu-law (G.711) to 16-bit linear.
+
+  static final short[] ULAW = new short[256];
+
+  static {
+    int i, u, s;
+
+    for (i = 0; i < 256; i++) {
+      u = ~i & 0xff;
+      s = (((u & 0x0f) << 3) + 0x84) << ((u >> 4) & 7);
+      ULAW[i] = (short) ((u & 0x80) != 0 ? 0x84 - s : s - 0x84);
+    }
+  }
+
+  // Fields:
+
+  short[] samples;
+  int     voices;      // Most copies playing at once (at least one).
+  int     interval;    // Shortest time between starts, in samples.
+
+  // Constructors:
+
+  public TGClip(short[] samples, int voices, int interval) {
+
+    this.samples = samples;
+    this.voices = Math.max(1, voices);
+    this.interval = interval;
+  }
+
+  // Methods:
+
+  // Read a clip from a URL, for playing at the given rate.
+
+  public static TGClip load(URL url, int rate, int voices, int milliseconds) throws IOException {
+
+    InputStream in;
+    short[] samples;
+
+    in = url.openStream();
+    try {
+      samples = read(new DataInputStream(new BufferedInputStream(in)), rate);
+    }
+    finally {
+      in.close();
+    }
+    return new TGClip(samples, voices, milliseconds * rate / 1000);
+  }
+
+  // Decode an .au file in 8-bit mu-law, 8-bit linear or 16-bit linear format,
+  // mixing it down to one channel and resampling it to the given rate.
+
+  public static short[] read(DataInputStream in, int rate) throws IOException {
+
+    int offset, size, encoding, from, channels, bytes, n, i, j, s;
+    byte[] data, a;
+    short[] mono, out;
+    double x, t;
+
+    if (in.readInt() != MAGIC)
+      throw new IOException("Not an .au file");
+    offset = in.readInt();
+    size = in.readInt();
+    encoding = in.readInt();
+    from = in.readInt();
+    channels = in.readInt();
+    if (encoding < 1 || encoding > 3 || from <= 0 || channels <= 0)
+      throw new IOException("Unsupported .au format");
+    if (offset < 24)
+      throw new IOException("Bad .au header size " + offset);
+    in.readFully(new byte[offset - 24]);
+
+    // Read the data, up to the end of the file if the size is not given.
+
+    data = new byte[size >= 0 ? size : 8192];
+    n = 0;
+    while ((i = in.read(data, n, data.length - n)) > 0) {
+      n += i;
+      if (n == data.length && size < 0) {
+        a = new byte[2 * data.length];
+        System.arraycopy(data, 0, a, 0, n);
+        data = a;
+      }
+    }
+
+    // Decode, averaging the channels.
+
+    bytes = (encoding == 3) ? 2 : 1;
+    mono = new short[n / (bytes * channels)];
+    for (i = 0; i < mono.length; i++) {
+      s = 0;
+      for (j = 0; j < channels; j++) {
+        if (encoding == 1)
+          s += ULAW[data[i * channels + j] & 0xff];
+        else if (encoding == 2)
+          s += data[i * channels + j] << 8;
+        else
+          s += (data[2 * (i * channels + j)] << 8) | (data[2 * (i * channels + j) + 1] & 0xff);
+      }
+      mono[i] = (short) (s / channels);
+    }
+    if (from == rate)
+      return mono;
+
+    // Resample by straight-line interpolation.
+
+    out = new short[(int) ((long) mono.length * rate / from)];
+    for (i = 0; i < out.length; i++) {
+      x = (double) i * from / rate;
+      j = (int) x;
+      t = x - j;
+      out[i] = (short) (j + 1 < mono.length ? mono[j] + t * (mono[j + 1] - mono[j]) : mono[j]);
+    }
+    return out;
+  }
+}
+
+/******************************************************************************
+  The TGMixer class plays sound effects for the game through a fixed number of
+  voices, mixed in software into a single audio line.
+
+  The game only counts requests to play each clip, which never blocks or
+  allocates. The mixer's own thread picks them up once per block of samples,
+  starts a voice for each (taking over the oldest one if none are free, or
+  the oldest of the same clip if it is already playing as many times as it
+  may), mixes the voices and writes the block to the line. The line only
+  holds a few blocks, so a sound is heard at most that long after the game
+  asks for it. Without a line (a null sink, when there is no sound device or
+  no display) the blocks are mixed at the same pace and thrown away.
+******************************************************************************/
+
+class TGMixer implements TGSound, Runnable {
+
+  // Constants.
+
+  static final int    RATE    = 22050;    // Samples per second.
+  static final int    BLOCK   =   256;    // Samples mixed at a time.
+  static final int    BLOCKS  =     4;    // Blocks the line holds.
+  static final int    VOICES  =     8;    // Sounds playing at once.
+  static final double VOLUME  =   0.7;
+  static final int    WAIT    =  1000;    // Longest wait for the thread to stop, in ms.
+
+  // Fields:
+
+  TGClip[]       clips;
+  SourceDataLine line;        // Null for a null sink.
+  Thread         thread;
+  volatile boolean running;
+
+  AtomicIntegerArray requests;    // Plays asked for since the last block.
+  AtomicInteger      stops;       // Requests to silence all voices.
+
+  int[]  voiceClips = new int[VOICES];      // Clip playing in each voice, or -1.
+  int[]  voicePlaces = new int[VOICES];     // Next sample of the clip.
+  long[] voiceStarts = new long[VOICES];    // When the voice was started.
+  long[] clipStarts;                        // When each clip was last started.
+  long   time;                              // Samples mixed so far.
+
+  int[]  mix = new int[BLOCK];
+  byte[] buffer = new byte[2 * BLOCK];
+
+  // Constructors:
+
+  public TGMixer(TGClip[] clips, SourceDataLine line) {
+
+    int i;
+
+    this.clips = clips;
+    this.line = line;
+    this.requests = new AtomicIntegerArray(clips.length);
+    this.stops = new AtomicInteger();
+    this.clipStarts = new long[clips.length];
+    for (i = 0; i < clips.length; i++)
+      this.clipStarts[i] = Long.MIN_VALUE / 2;
+    for (i = 0; i < VOICES; i++)
+      this.voiceClips[i] = -1;
+  }
+
+  // Methods:
+
+  // Open a line for the mixer's output, or return null if there is none.
+
+  public static SourceDataLine openLine() {
+
+    AudioFormat format;
+    SourceDataLine line;
+
+    format = new AudioFormat(RATE, 16, 1, true, true);
+    try {
+      line = AudioSystem.getSourceDataLine(format);
+      line.open(format, 2 * BLOCK * BLOCKS);
+      line.start();
+      return line;
+    }
+    catch (Exception e) {
+      return null;
+    }
+  }
+
+  // Start and stop the mixer's thread.
+
+  public void start() {
+
+    this.running = true;
+    this.thread = new Thread(this, "TGMixer");
+    this.thread.setDaemon(true);
+    this.thread.setPriority(Thread.MAX_PRIORITY);
+    this.thread.start();
+  }
+
+  // The line belongs to the mixer's thread, which may be in the middle of writing
+  // to it, so the thread is left to finish and close it.
+
+  public void close() {
+
+    this.running = false;
+    if (this.thread == null) {
+      if (this.line != null)
+        this.line.close();
+      return;
+    }
+    if (this.thread != Thread.currentThread()) {
+      try {
+        this.thread.join(WAIT);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  // Ask for a clip to be played. Called from the game thread.
+
+  public void play(int clip) {
+
+    if (clip >= 0 && clip < this.clips.length)
+      this.requests.incrementAndGet(clip);
+  }
+
+  // Silence everything playing.
+
+  public void stopAll() {
+
+    this.stops.incrementAndGet();
+  }
+
+  public void run() {
+
+    long next, now;
+
+    next = System.nanoTime();
+    while (this.running) {
+      mix();
+      if (this.line != null)
+        this.line.write(this.buffer, 0, this.buffer.length);
+      else {
+
+        // Keep the same pace as a line would.
+
+        next += BLOCK * 1000000000L / RATE;
+        now = System.nanoTime();
+        if (next > now) {
+          try {
+            Thread.sleep((next - now) / 1000000, (int) ((next - now) % 1000000));
+          }
+          catch (InterruptedException e) {
+            break;
+          }
+        }
+        else
+          next = now;
+      }
+    }
+    if (this.line != null) {
+      this.line.drain();
+      this.line.stop();
+      this.line.close();
+    }
+  }
+
+  // Start any clips asked for and mix the next block into the buffer.
+
+  void mix() {
+
+    int i, j, n, v, s;
+    short[] samples;
+    int[] mix;
+
+    if (this.stops.getAndSet(0) > 0)
+      for (v = 0; v < VOICES; v++)
+        this.voiceClips[v] = -1;
+    for (i = 0; i < this.clips.length; i++)
+      if (this.requests.getAndSet(i, 0) > 0)
+        start(i);
+
+    mix = this.mix;
+    for (i = 0; i < BLOCK; i++)
+      mix[i] = 0;
+    for (v = 0; v < VOICES; v++) {
+      if (this.voiceClips[v] < 0)
+        continue;
+      samples = this.clips[this.voiceClips[v]].samples;
+      j = this.voicePlaces[v];
+      n = Math.min(BLOCK, samples.length - j);
+      for (i = 0; i < n; i++)
+        mix[i] += samples[j + i];
+      this.voicePlaces[v] = j + n;
+      if (j + n >= samples.length)
+        this.voiceClips[v] = -1;
+    }
+    for (i = 0; i < BLOCK; i++) {
+      s = Math.max(-32768, Math.min(32767, (int) (VOLUME * mix[i])));
+      this.buffer[2 * i] = (byte) (s >> 8);
+      this.buffer[2 * i + 1] = (byte) s;
+    }
+    this.time += BLOCK;
+  }
+
+  // Start a voice for a clip, unless it was started too recently.
+
+  private void start(int clip) {
+
+    int v, free, oldest, same, count;
+    TGClip c;
+
+    c = this.clips[clip];
+    if (c == null || this.time - this.clipStarts[clip] < c.interval)
+      return;
+
+    // Use a free voice, or take over the oldest one playing this clip if it is
+    // already at its limit, or else the oldest one of all.
+
+    free = oldest = same = -1;
+    count = 0;
+    for (v = 0; v < VOICES; v++) {
+      if (this.voiceClips[v] < 0) {
+        if (free < 0)
+          free = v;
+        continue;
+      }
+      if (oldest < 0 || this.voiceStarts[v] < this.voiceStarts[oldest])
+        oldest = v;
+      if (this.voiceClips[v] == clip) {
+        count++;
+        if (same < 0 || this.voiceStarts[v] < this.voiceStarts[same])
+          same = v;
+      }
+    }
+    v = (count >= c.voices) ? same : (free >= 0) ? free : oldest;
+    this.voiceClips[v] = clip;
+    this.voicePlaces[v] = 0;
+    this.voiceStarts[v] = this.time;
+    this.clipStarts[clip] = this.time;
+  }
+}
+
+/******************************************************************************
+  The TGAssets class loads everything the game reads from files: the ship
+  types and the sound clips. All of them are loaded at once, each on its own
+  thread, and the number finished so far can be read at any time to show
+  progress. The ship types are needed before the game can be shown at all;
+  the sounds only before it can be played.
+******************************************************************************/
+
+class TGAssets {
+
+  // Fields:
+
+  URL      base;     // Where the sound files are.
+  TGClip[] clips;    // Decoded clips, null for any that could not be read.
+
+  CompletableFuture<TGShipFile> ships;    // Done when the ship types are loaded.
+  CompletableFuture<Void>       all;      // Done when everything is loaded.
+
+  int           total;    // Number of files, and the number done so far.
+  AtomicInteger done = new AtomicInteger();
+
+  long startTime;    // When loading started, and when it was done (nanoseconds).
+  long endTime;
+
+  private ExecutorService pool;
+
+  // Constructors:
+
+  // Start loading, with the sounds taken from the given base URL.
+
+  public TGAssets(URL base) {
+
+    CompletableFuture<?>[] loads;
+    int i;
+
+    this.base = base;
+    this.startTime = System.nanoTime();
+    this.clips = new TGClip[TGSound.CLIP_FILES.length];
+    this.total = this.clips.length + 1;
+    this.pool = Executors.newFixedThreadPool(this.total, new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "TGAssets");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+
+    this.ships = CompletableFuture.supplyAsync(new Supplier<TGShipFile>() {
+      public TGShipFile get() {
+        try {
+          return TGWorld.loadShipTypes();
+        }
+        finally {
+          done.incrementAndGet();
+        }
+      }
+    }, this.pool);
+    loads = new CompletableFuture<?>[this.total];
+    loads[0] = this.ships;
+    for (i = 0; i < this.clips.length; i++)
+      loads[i + 1] = loadClip(i);
+    this.all = CompletableFuture.allOf(loads).whenComplete(new BiConsumer<Void, Throwable>() {
+      public void accept(Void v, Throwable e) {
+        endTime = System.nanoTime();
+        pool.shutdown();
+      }
+    });
+  }
+
+  // Methods:
+
+  private CompletableFuture<Void> loadClip(final int i) {
+
+    return CompletableFuture.runAsync(new Runnable() {
+      public void run() {
+        try {
+          clips[i] = TGClip.load(new URL(base, TGSound.CLIP_FILES[i]), TGMixer.RATE,
+                                 TGSound.CLIP_VOICES[i], TGSound.CLIP_INTERVALS[i]);
+        }
+        catch (IOException e) {}
+        finally {
+          done.incrementAndGet();
+        }
+      }
+    }, this.pool);
+  }
+}
+
+/******************************************************************************
+  The TGShipTemplate class holds everything that is the same for all ships of
+  one type: the shape, with its levels of detail and a piece of debris for
+  each face, and the game values. Templates never change once made, so every
+  ship of the type (and every world) shares the one copy.
+******************************************************************************/
+
+class TGShipTemplate {
+
+  // Fields:
+
+  final String   name;
+  final double   frequency;    // Relative chance of a new ship being this type.
+  final int      points;       // Score for shooting one down.
+  final double   speed;        // Speed and turn rate, as multiples of the
+  final double   turn;         // world's random ones.
+  final int      damage;       // Shield lost when one gets past.
+  final TGMesh   mesh;
+  final TGMesh[] debris;       // Shape of the debris from each face.
+
+  // Constructors:
+
+  public TGShipTemplate(String name, double frequency, int points, double speed, double turn, int damage, TGMesh mesh) {
+
+    int i;
+
+    this.name = name;
+    this.frequency = frequency;
+    this.points = points;
+    this.speed = speed;
+    this.turn = turn;
+    this.damage = damage;
+    this.mesh = mesh;
+    this.debris = new TGMesh[mesh.numFaces];
+    for (i = 0; i < mesh.numFaces; i++)
+      this.debris[i] = mesh.face(i);
+  }
+}
+
+/******************************************************************************
+  The TGShipFile class reads and writes ship types: the shape of each ship
+  along with its name and game values. Ships are written by hand in a text
+  file (see ships.txt) and compiled into a compact binary file, which is what
+  the game normally loads.
+
+  Binary format (big-endian, as written by DataOutputStream):
+
+  int    magic ("TGSH"), short version, short number of types, then for each:
+  UTF    name
+  double frequency, short points, double speed, double turn, short damage
+  short  number of vertices, then three floats for each
+  short  number of faces, then for each a byte count and a byte per index
+******************************************************************************/
+
+class TGShipFile {
+
+  // Constants.
+
+  static final int MAGIC   = 0x54475348;
+  static final int VERSION = 1;
+
+  static final int MAX_VERTICES = 256;    // Indices are stored in a byte.
+  static final int MAX_FACES    = 255;    // TGDrawList needs fewer than 256.
+
+  // Fields:
+
+  int              numTypes;
+  TGShipTemplate[] types;
+
+  // Constructors:
+
+  public TGShipFile() {
+
+    this.numTypes = 0;
+    this.types = new TGShipTemplate[0];
+  }
+
+  // Methods:
+
+  // Load ship types from a resource on the class path, in the text format if the
+  // name ends in .txt and in the binary format otherwise.
+
+  public static TGShipFile load(String name) throws IOException {
+
+    InputStream in;
+    TGShipFile file;
+
+    in = TGShipFile.class.getResourceAsStream(name);
+    if (in == null)
+      throw new FileNotFoundException(name);
+    file = new TGShipFile();
+    try {
+      if (name.endsWith(".txt"))
+        file.readText(new BufferedReader(new InputStreamReader(in, "UTF-8")));
+      else
+        file.readBinary(new DataInputStream(new BufferedInputStream(in)));
+    }
+    finally {
+      in.close();
+    }
+    return file;
+  }
+
+  // Add a ship type, after checking that its values and shape can be used. The
+  // shape's levels of detail are made here, so the template is ready to be shared.
+
+  public void addType(String name, double frequency, int points, double speed, double turn, int damage, TGMeshBuilder shape)
+    throws IOException {
+
+    TGShipTemplate[] a;
+    int i, j;
+
+    if (frequency < 0 || speed <= 0 || turn <= 0 || points < 0 || damage < 0)
+      throw new IOException(name + ": bad game values");
+    if (shape.numVertices == 0 || shape.numVertices > MAX_VERTICES)
+      throw new IOException(name + ": needs 1 to " + MAX_VERTICES + " vertices");
+    if (shape.numFaces == 0 || shape.numFaces > MAX_FACES)
+      throw new IOException(name + ": needs 1 to " + MAX_FACES + " faces");
+    for (i = 0; i < shape.numFaces; i++) {
+      if (shape.faceOffsets[i + 1] - shape.faceOffsets[i] < 3)
+        throw new IOException(name + ": face " + i + " has less than three points");
+      for (j = shape.faceOffsets[i]; j < shape.faceOffsets[i + 1]; j++)
+        if (shape.faceIndices[j] < 0 || shape.faceIndices[j] >= shape.numVertices)
+          throw new IOException(name + ": face " + i + " uses missing vertex " + shape.faceIndices[j]);
+    }
+
+    if (this.numTypes == this.types.length) {
+      a = new TGShipTemplate[2 * this.numTypes + 4];
+      System.arraycopy(this.types, 0, a, 0, this.numTypes);
+      this.types = a;
+    }
+    this.types[this.numTypes++] = new TGShipTemplate(name, frequency, points, speed, turn, damage, shape.build(true));
+  }
+
+  // Trim the list to the number of types read.
+
+  private void trim() {
+
+    TGShipTemplate[] a;
+
+    a = new TGShipTemplate[this.numTypes];
+    System.arraycopy(this.types, 0, a, 0, this.numTypes);
+    this.types = a;
+  }
+
+  // Read ship types in the text format.
+
+  public void readText(Reader r) throws IOException {
+
+    StreamTokenizer in;
+    String name, word;
+    double frequency, speed, turn;
+    int points, damage;
+    TGMeshBuilder shape;
+    TGFace face;
+
+    in = new StreamTokenizer(r);
+    in.resetSyntax();
+    in.wordChars(33, 255);
+    in.whitespaceChars(0, 32);
+    in.commentChar('#');
+    in.quoteChar('"');
+    in.parseNumbers();
+
+    while (in.nextToken() != StreamTokenizer.TT_EOF) {
+      if (in.ttype != StreamTokenizer.TT_WORD || !in.sval.equals("ship"))
+        throw error(in, "expected ship");
+      if (in.nextToken() != '"')
+        throw error(in, "expected a quoted ship name");
+      name = in.sval;
+      frequency = speed = turn = 1;
+      points = damage = 0;
+      shape = new TGMeshBuilder();
+
+      // Read the values and shape, up to the end of the ship.
+
+      while (true) {
+        if (in.nextToken() != StreamTokenizer.TT_WORD)
+          throw error(in, "expected a keyword");
+        word = in.sval;
+        if (word.equals("end"))
+          break;
+        else if (word.equals("frequency"))
+          frequency = number(in);
+        else if (word.equals("points"))
+          points = (int) number(in);
+        else if (word.equals("speed"))
+          speed = number(in);
+        else if (word.equals("turn"))
+          turn = number(in);
+        else if (word.equals("damage"))
+          damage = (int) number(in);
+        else if (word.equals("vertex"))
+          shape.addVertice(new TGPoint((float) number(in), (float) number(in), (float) number(in)));
+        else if (word.equals("face")) {
+          face = new TGFace();
+          while (in.nextToken() == StreamTokenizer.TT_NUMBER)
+            face.addIndice((int) in.nval);
+          in.pushBack();
+          shape.addFace(face);
+        }
+        else
+          throw error(in, "unknown keyword " + word);
+      }
+      try {
+        addType(name, frequency, points, speed, turn, damage, shape);
+      }
+      catch (IOException e) {
+        throw error(in, e.getMessage());
+      }
+    }
+    trim();
+  }
+
+  private static double number(StreamTokenizer in) throws IOException {
+
+    if (in.nextToken() != StreamTokenizer.TT_NUMBER)
+      throw error(in, "expected a number");
+    return in.nval;
+  }
+
+  private static IOException error(StreamTokenizer in, String message) {
+
+    return new IOException("Line " + in.lineno() + ": " + message);
+  }
+
+  // Read ship types in the binary format.
+
+  public void readBinary(DataInputStream in) throws IOException {
+
+    int i, j, k, n, count;
+    String name;
+    double frequency, speed, turn;
+    int points, damage;
+    TGMeshBuilder shape;
+    TGFace face;
+
+    if (in.readInt() != MAGIC)
+      throw new IOException("Not a ship file");
+    if (in.readShort() != VERSION)
+      throw new IOException("Unknown ship file version");
+    n = in.readShort();
+    for (i = 0; i < n; i++) {
+      name = in.readUTF();
+      frequency = in.readDouble();
+      points = in.readShort();
+      speed = in.readDouble();
+      turn = in.readDouble();
+      damage = in.readShort();
+      shape = new TGMeshBuilder();
+      count = in.readShort();
+      for (j = 0; j < count; j++)
+        shape.addVertice(new TGPoint(in.readFloat(), in.readFloat(), in.readFloat()));
+      count = in.readShort();
+      for (j = 0; j < count; j++) {
+        face = new TGFace();
+        for (k = in.readUnsignedByte(); k > 0; k--)
+          face.addIndice(in.readUnsignedByte());
+        shape.addFace(face);
+      }
+      addType(name, frequency, points, speed, turn, damage, shape);
+    }
+    trim();
+  }
+
+  // Write the ship types in the binary format.
+
+  public void writeBinary(DataOutputStream out) throws IOException {
+
+    int i, j, k;
+    TGShipTemplate type;
+    TGMesh shape;
+
+    out.writeInt(MAGIC);
+    out.writeShort(VERSION);
+    out.writeShort(this.numTypes);
+    for (i = 0; i < this.numTypes; i++) {
+      type = this.types[i];
+      out.writeUTF(type.name);
+      out.writeDouble(type.frequency);
+      out.writeShort(type.points);
+      out.writeDouble(type.speed);
+      out.writeDouble(type.turn);
+      out.writeShort(type.damage);
+      shape = type.mesh;
+      out.writeShort(shape.numVertices);
+      for (j = 0; j < 3 * shape.numVertices; j++)
+        out.writeFloat((float) shape.vo[j]);
+      out.writeShort(shape.numFaces);
+      for (j = 0; j < shape.numFaces; j++) {
+        out.writeByte(shape.faceOffsets[j + 1] - shape.faceOffsets[j]);
+        for (k = shape.faceOffsets[j]; k < shape.faceOffsets[j + 1]; k++)
+          out.writeByte(shape.faceIndices[k]);
+      }
+    }
+    out.flush();
+  }
+
+  // Compile a text ship file into a binary one.
+  //
+  // java TGShipFile ships.txt ships.dat
+
+  public static void main(String[] args) throws IOException {
+
+    TGShipFile file;
+    Reader in;
+    DataOutputStream out;
+
+    if (args.length != 2) {
+      System.err.println("Usage: java TGShipFile input.txt output.dat");
+      System.exit(1);
+    }
+    file = new TGShipFile();
+    in = new BufferedReader(new InputStreamReader(new FileInputStream(args[0]), "UTF-8"));
+    try {
+      file.readText(in);
+    }
+    finally {
+      in.close();
+    }
+    out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(args[1])));
+    try {
+      file.writeBinary(out);
+    }
+    finally {
+      out.close();
+    }
+    System.out.println(file.numTypes + " ship types written to " + args[1]);
+  }
+}
+
+/******************************************************************************
+  The TGRandom class is the game's random number generator. It is SplitMix64,
+  the generator of java.util.SplittableRandom, and gives the same numbers from
+  the same seed, but its state is a plain field so that a snapshot of the game
+  can save and restore it.
+******************************************************************************/
+
+class TGRandom {
+
+  // Constants.
+
+  static final long GAMMA = 0x9e3779b97f4a7c15L;    // Added to the state each time.
+
+  // Fields:
+
+  long state;
+
+  // Constructors:
+
+  public TGRandom(long seed) {
+
+    this.state = seed;
+  }
+
+  // Methods:
+
+  public long nextLong() {
+
+    long z;
+
+    z = (this.state += GAMMA);
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  // A number from zero up to but not including one, from the top 53 bits.
+
+  public double nextDouble() {
+
+    return (nextLong() >>> 11) * 0x1.0p-53;
+  }
+}
+
+/******************************************************************************
+  The TGWorld class holds the game itself: the ships, debris, stars, score and
+  shields, and the rules for moving them from one tick to the next. It needs no
+  display, sound or applet so it can be run on its own.
+
+  Each call to step() advances the game by one tick and renders the ships and
+  debris into the world's draw list, which a front end can use to draw the
+  screen. Sound effects are passed to an optional TGSound.
+******************************************************************************/
+
+class TGWorld {
+
+  // Constants.
+
+  static final int DELAY =  50;    // Milliseconds between game ticks.
+  static final int MAG   = 100;    // Magnification for 3D objects.
+
+  static final int DEMO = 1;    // Game states.
+  static final int PLAY = 2;
+  static final int END  = 3;
+
+  // Ship constants.
+
+  static final int    NUM_COLORS     =     6;
+  static final int    NUM_SHIPS      =     6;    // Default number in play.
+  static final int    START_DISTANCE = -1000;
+  static final int    SOUND_DISTANCE =  -150;
+  static final int    END_DISTANCE   =     0;
+  static final int    MAX_HORIZONTAL =   100;
+  static final int    MAX_VERTICAL   =    30;
+  static final int    MIN_SPEED      =     2;
+  static final int    MAX_SPEED      =     8;
+  static final double MAX_TURN       = Math.PI / 100;
+  static final int    EXPLODE_COUNT  = 100;
+
+  // Debris constants.
+
+  static final int    MAX_DEBRIS   = 20;    // Default size of the debris pool.
+  static final int    DEBRIS_COUNT = 50;
+  static final double MAX_SPIN     = Math.PI / 20;
+
+  // Demo mode constants.
+
+  static final int DEMO_DISTANCE = -40;
+  static final int DEMO_COUNT    = 400;
+
+  // Fewest objects worth rendering in parallel.
+
+  static final int PARALLEL_OBJECTS = 64;
+
+  // Miscellaneous game constants.
+
+  static final int BLAST_COUNT   =   5;
+  static final int END_COUNT     = 200;
+  static final int NUM_STARS     =  20;
+  static final int SHIELD_START  = 100;
+
+  // Game data.
+
+  boolean firing;
+  boolean fired;        // Set for the tick a shot was taken.
+  boolean paused;
+  int     gameState;
+  int     blastCounter;
+  int     endCounter;
+  int     mx, my;
+  int     score;
+  int     highScore;
+  int     shields;
+
+  // Balance settings. They start out as the constants above, and may be changed
+  // for the next game to try others out (see TGBatch).
+
+  int    shieldStart = SHIELD_START;
+  double maxSpeed    = MAX_SPEED;
+
+  // Counts for the current game by ship type: ships shot down, ships that got
+  // past, and those of them that hit the shields.
+
+  int[] kills;
+  int[] escapes;
+  int[] hits;
+
+  // Target under the crosshairs.
+
+  boolean targeted;
+  int     targetRange;
+  int     targetSpeed;
+
+  // Enemy ships.
+
+  static final String SHIP_FILE = "ships.dat";    // Ship types, and the text they
+  static final String SHIP_TEXT = "ships.txt";    // are compiled from.
+
+  static TGShipFile shipTypes;    // Loaded once and shared by all worlds.
+
+  int              numTypes;
+  TGShipTemplate[] types;
+
+  int      numShips;    // Number of ships in play at once.
+  TGShip[] ships;
+
+  // Explosion debris. The pieces are made up front and kept in a pool: the free
+  // list holds those not in use and the active list those in flight.
+
+  int        maxDebris;
+  TGDebris[] debris;
+  int[]      freeDebris;
+  int        numFree;
+  int[]      activeDebris;
+  int        numActive;
+  int        debrisIndex;    // Next active piece to reuse if none are free.
+
+  // Viewpoint.
+
+  TGPoint viewpoint;
+
+  // Screen size.
+
+  int scrnWidth;
+  int scrnHeight;
+
+  // Stars.
+
+  int starsX[] = new int[NUM_STARS];
+  int starsY[] = new int[NUM_STARS];
+  double starsAngle[] = new double[NUM_STARS];
+  double starsRadius[] = new double[NUM_STARS];
+  double starsMinRadius[] = new double[NUM_STARS];
+
+  // Demo data.
+
+  int demoIndex;
+  int demoCounter;
+
+  // Random numbers for the game, from a seed, so the same seed and input always
+  // play the same game.
+
+  long     seed;
+  TGRandom random;
+
+  // All ships and debris rendered this tick, in drawing order.
+
+  TGDrawList list = new TGDrawList();
+  TGGrid     grid = new TGGrid();      // Index of ships on the screen.
+  boolean[]  listed;                   // Which ships and debris are in the list,
+                                       // for snapshots.
+
+  // Whether large lists may be rendered on several threads.
+
+  boolean parallel = true;
+
+  // Where to send sound effects, if anywhere.
+
+  TGSound sounds;
+
+  // Where to record how long rendering takes, if anywhere, and how many faces
+  // were left out of the last rendering (facing away, out of view or dropped
+  // for a lower level of detail).
+
+  TGMetrics metrics;
+  int       numCulled;
+
+  // Where to record the input, if anywhere, so the game can be replayed.
+
+  TGReplay replay;
+
+  // Constructors:
+
+  public TGWorld(int width, int height) {
+
+    this(width, height, NUM_SHIPS, MAX_DEBRIS);
+  }
+
+  // Create a world with the given number of ships in play and pieces of debris. All
+  // of them are made here, big enough for any ship type, so that nothing needs to
+  // be allocated when ships appear or explode.
+
+  public TGWorld(int width, int height, int numShips, int maxDebris) {
+
+    this(width, height, numShips, maxDebris, new SplittableRandom().nextLong());
+  }
+
+  public TGWorld(int width, int height, int numShips, int maxDebris, long seed) {
+
+    this(width, height, numShips, maxDebris, seed, loadShipTypes());
+  }
+
+  // A world with the given numbers of ships, debris and types but nothing in it,
+  // every place sharing one empty ship or piece, for walking a snapshot's values.
+
+  private TGWorld(int numShips, int maxDebris, int numTypes) {
+
+    TGShip ship;
+    TGDebris piece;
+
+    random = new TGRandom(0);
+    this.numTypes = numTypes;
+    kills = new int[numTypes];
+    escapes = new int[numTypes];
+    hits = new int[numTypes];
+    ship = new TGShip();
+    piece = new TGDebris();
+    this.numShips = numShips;
+    ships = new TGShip[numShips];
+    Arrays.fill(ships, ship);
+    this.maxDebris = maxDebris;
+    debris = new TGDebris[maxDebris];
+    Arrays.fill(debris, piece);
+    freeDebris = new int[maxDebris];
+    activeDebris = new int[maxDebris];
+    listed = new boolean[numShips + maxDebris];
+  }
+
+  public TGWorld(int width, int height, int numShips, int maxDebris, long seed, TGShipFile file) {
+
+    int i, vertices, faces, points;
+
+    this.seed = seed;
+    random = new TGRandom(seed);
+    initTypes(file);
+
+    vertices = faces = points = 0;
+    for (i = 0; i < numTypes; i++) {
+      vertices = Math.max(vertices, types[i].mesh.numVertices);
+      faces = Math.max(faces, types[i].mesh.numFaces);
+      points = Math.max(points, types[i].mesh.maxFace);
+    }
+    this.numShips = numShips;
+    ships = new TGShip[numShips];
+    for (i = 0; i < numShips; i++) {
+      ships[i] = new TGShip();
+      ships[i].reserve(vertices, faces, points);
+      ships[i].id = i;
+    }
+    this.maxDebris = maxDebris;
+    debris = new TGDebris[maxDebris];
+    freeDebris = new int[maxDebris];
+    activeDebris = new int[maxDebris];
+    for (i = 0; i < maxDebris; i++) {
+      debris[i] = new TGDebris(points);
+      debris[i].id = numShips + i;
+    }
+    listed = new boolean[numShips + maxDebris];
+
+    // Set viewpoint.
+
+    viewpoint = new TGPoint(0, 0, 10);
+
+    // Initialize stars.
+
+    scrnWidth = width;
+    scrnHeight = height;
+    for (i = 0; i < NUM_STARS; i++)
+      initStar(i);
+
+    highScore = 0;
+    initGame();
+    initDemo();
+  }
+
+  // Methods:
+
+  // Take the ship types from the given file. The templates are shared by every
+  // world made from it.
+
+  public void initTypes(TGShipFile file) {
+
+    numTypes = file.numTypes;
+    types = file.types;
+    kills = new int[numTypes];
+    escapes = new int[numTypes];
+    hits = new int[numTypes];
+  }
+
+  // Load the ship types from the binary file, or from the text file if there is no
+  // binary one. A binary file that is there but cannot be read is an error, not a
+  // reason to try the text. They are only read the first time.
+
+  static synchronized TGShipFile loadShipTypes() {
+
+    if (shipTypes == null) {
+      try {
+        shipTypes = TGShipFile.load(SHIP_FILE);
+      }
+      catch (FileNotFoundException e) {
+        try {
+          shipTypes = TGShipFile.load(SHIP_TEXT);
+        }
+        catch (IOException f) {
+          throw new IllegalStateException("Cannot load ship types from " + SHIP_TEXT + ": " + f.getMessage());
+        }
+      }
+      catch (IOException e) {
+        throw new IllegalStateException("Cannot load ship types from " + SHIP_FILE + ": " + e);
+      }
+    }
+    return shipTypes;
+  }
+
+  public void setSize(int width, int height) {
+
+    if (replay != null && (width != scrnWidth || height != scrnHeight))
+      replay.size(width, height);
+    scrnWidth = width;
+    scrnHeight = height;
+  }
+
+  // Advance the game by one tick.
+
+  public void step() {
+
+    int i;
+
+    fired = false;
+
+    // Remember where everything was, for rendering in between ticks.
+
+    for (i = 0; i < numShips; i++)
+      ships[i].savePose();
+    for (i = 0; i < numActive; i++)
+      debris[activeDebris[i]].savePose();
+
+    // In playing or ending mode, update moving objects and advance blast counter if active.
+
+    if (!paused && (gameState == PLAY || gameState == END)) {
+      list.reset();
+      updateStars();
+      updateShips();
+      updateDebris();
+      if (blastCounter > 0)
+        blastCounter--;
+    }
+
+    // In game ending mode, advance ending counter and start demo when it hits zero.
+
+    if (!paused && gameState == END && --endCounter <= 0)
+        initDemo();
+
+    // In demo mode.
+
+    if (!paused && gameState == DEMO)
+      updateDemo();
+
+    // Render the ships and debris in their new positions (the same ones if
+    // paused), so what is under the crosshairs only depends on the ticks run and
+    // not on when the screen was last drawn.
+
+    render(1.0);
+
+    // See what is under the crosshairs and take any shot.
+
+    updateTarget();
+
+    if (replay != null)
+      replay.tick(this);
+  }
+
+  // Render everything in the draw list and put it in drawing order. An alpha less
+  // than one renders at a point between the previous and current positions (see
+  // TGObject.render()), for display in between ticks.
+  //
+  // Each object only writes to its own buffers, so large lists are split up and
+  // rendered in parallel on the common fork/join pool.
+
+  public void render(double alpha) {
+
+    int i, n;
+    long t0, t1;
+    TGObject o;
+
+    t0 = (metrics != null) ? System.nanoTime() : 0;
+    if (parallel && list.numObjects >= PARALLEL_OBJECTS)
+      ForkJoinPool.commonPool().invoke(new TGRenderTask(list.objects, 0, list.numObjects,
+        viewpoint, MAG, scrnWidth / 2, scrnHeight / 2, alpha));
+    else
+      for (i = 0; i < list.numObjects; i++)
+        list.objects[i].render(viewpoint, MAG, scrnWidth / 2, scrnHeight / 2, alpha);
+    t1 = (metrics != null) ? System.nanoTime() : 0;
+    list.sort();
+    grid.build(list, scrnWidth, scrnHeight);
+
+    n = 0;
+    for (i = 0; i < list.numObjects; i++) {
+      o = list.objects[i];
+      n += Math.max(0, o.mesh.numFaces - o.numPolygons);
+    }
+    numCulled = n;
+    if (metrics != null) {
+      metrics.record(TGMetrics.RENDER, t1 - t0);
+      metrics.record(TGMetrics.SORT, System.nanoTime() - t1);
+    }
+  }
+
+  public void updateTarget() {
+
+    TGShip shape, victim;
+
+    // Find the ship under the crosshairs. (If ships overlap, only the nearest
+    // should be hit.)
+
+    shape = grid.pick(list, viewpoint, MAG, mx, my);
+    targeted = (shape != null);
+    victim = null;
+    if (targeted) {
+      targetRange = (int) shape.dist1;
+      targetSpeed = (int) ((shape.dist2 - shape.dist1) * 1000 / DELAY);
+      if (firing)
+        victim = shape;
+    }
+
+    // If a ship was targeted while firing, set it up for explosion.
+
+    if (victim != null) {
+      victim.exploding = true;
+      victim.counter = EXPLODE_COUNT;
+    }
+
+    // Note the shot so the beams can be drawn.
+
+    if (firing && !paused) {
+      play(TGSound.FIRE);
+      fired = true;
+      firing = false;
+    }
+
+    if (targeted && gameState != END && !paused)
+      play(TGSound.TARGETED);
+  }
+
+  public void initGame() {
+
+    int i;
+
+    if (replay != null)
+      replay.start();
+
+    // Initialize game data.
+
+    gameState = PLAY;
+    paused = false;
+    firing = false;
+    blastCounter = 0;
+    score = 0;
+    shields = shieldStart;
+    for (i = 0; i < numTypes; i++)
+      kills[i] = escapes[i] = hits[i] = 0;
+
+    // Initialize ships.
+
+    for (i = 0; i < numShips; i++)
+      initShip(i);
+
+    // Put all the debris back in the pool.
+
+    for (i = 0; i < maxDebris; i++) {
+      debris[i].active = false;
+      freeDebris[i] = maxDebris - 1 - i;
+    }
+    numFree = maxDebris;
+    numActive = 0;
+    debrisIndex = 0;
+
+  }
+
+  public void endGame() {
+
+    gameState = END;
+    endCounter = END_COUNT;
+  }
+
+  public void initStar(int i) {
+
+    starsAngle[i] = random.nextDouble() * 2 * Math.PI;
+    starsRadius[i] = Math.max(scrnWidth, scrnHeight) / 2 +
+      random.nextDouble() * Math.min(scrnWidth, scrnHeight) / 4;
+    starsMinRadius[i] = starsRadius[i] / (random.nextDouble() * 9 + 1);
+  }
+
+  public void updateStars() {
+
+    int i;
+
+    // Move stars inward.
+
+    for (i = 0; i < NUM_STARS; i++) {
+      if((starsRadius[i] *= .95) < starsMinRadius[i])
+        initStar(i);
+      starsX[i] = (int) (scrnWidth / 2  + starsRadius[i] * Math.sin(starsAngle[i]));
+      starsY[i] = (int) (scrnHeight / 2 + starsRadius[i] * Math.cos(starsAngle[i]));
+    }
+  }
+
+  public void initShip(int i) {
+
+    int j;
+    double r, f;
+
+    r = random.nextDouble();
+    f = 0;
+    j = -1;
+    do {
+      j++;
+      f += types[j].frequency;
+    } while (f < r && j < numTypes - 1);
+    ships[i].reset(types[j]);
+    ships[i].type = j;
+    ships[i].dz = START_DISTANCE;
+    ships[i].ax = 0;
+    ships[i].ay = 0;
+    ships[i].az = 0;
+    ships[i].color = (int) (random.nextDouble() * NUM_COLORS);
+    ships[i].speed = MIN_SPEED + random.nextDouble() * (maxSpeed - MIN_SPEED);
+    ships[i].speed *= ships[i].template.speed;
+    ships[i].a1 = random.nextDouble() * 2 * Math.PI;
+    ships[i].a2 = random.nextDouble() * 2 * Math.PI;
+    ships[i].c1 = random.nextDouble() * MAX_TURN - 2 * MAX_TURN;
+    ships[i].c1 *= ships[i].template.turn;
+    ships[i].c2 = random.nextDouble() * MAX_TURN - 2 * MAX_TURN;
+    ships[i].c2 *= ships[i].template.turn;
+    ships[i].dist1 = ships[i].dz;
+    ships[i].dist2 = ships[i].dz;
+    ships[i].savePose();
+
+    ships[i].exploding = false;
+  }
+
+  public void updateShips() {
+
+    int i;
+    double sx, sy;
+
+    for (i = 0; i < numShips; i++) {
+
+      // If exploding, decrement explosion counter. Generate new ship at end.
+
+      if (ships[i].exploding) {
+        if (ships[i].counter == EXPLODE_COUNT) {
+          play(TGSound.EXPLODE);
+          explodeShip(i);
+          score += ships[i].template.points;
+          kills[ships[i].type]++;
+          if (score > highScore)
+            highScore = score;
+        }
+        if (--ships[i].counter <= 0)
+          initShip(i);
+      }
+
+      // Otherwise, move the ship.
+
+      else {
+        ships[i].a1 += ships[i].c1;
+        if (ships[i].a1 > 2 * Math.PI)
+          ships[i].a1 -= 2 * Math.PI;
+        ships[i].a2 += ships[i].c2;
+        if (ships[i].a2 > 2 * Math.PI)
+          ships[i].a2 -= 2 * Math.PI;
+        sx = Math.sin(ships[i].a1);
+        sy = Math.sin(ships[i].a2);
+        ships[i].dx = MAX_HORIZONTAL * sx;
+        ships[i].dy = MAX_VERTICAL   * sy;
+        ships[i].ax = -sy * Math.PI / 6;
+        ships[i].az =  sx * Math.PI / 6;
+        ships[i].dz += ships[i].speed;
+        ships[i].dist2 = ships[i].dist1;
+        ships[i].dist1 = Math.sqrt(Math.pow(ships[i].dx, 2) + Math.pow(ships[i].dy, 2) + Math.pow(ships[i].dz, 2));
+
+        // When close, play sound effect.
+
+        if (ships[i].dz > SOUND_DISTANCE && !ships[i].sounded) {
+            ships[i].sounded = true;
+            play(TGSound.PASSING);
+        }
+
+        // If too close, let it take a shot then remove and generate a new ship.
+
+        if (ships[i].dz > END_DISTANCE) {
+          if (gameState == PLAY)
+            escapes[ships[i].type]++;
+          if (gameState != END && random.nextDouble() < .5) {
+            hits[ships[i].type]++;
+            play(TGSound.BLAST);
+            shields -= ships[i].template.damage;
+            if (shields < 0) {
+              shields = 0;
+              endGame();
+            }
+            blastCounter = BLAST_COUNT;
+          }
+          if (gameState == PLAY)
+            initShip(i);
+          else
+            ships[i].reset(null);
+        }
+
+        // Add the ship to the list to be rendered.
+
+        list.add(ships[i]);
+      }
+    }
+  }
+
+  public void explodeShip(int i) {
+
+    int j;
+    TGDebris piece;
+
+    // Create debris from the ship.
+
+    for (j = 0; j < ships[i].mesh.numFaces && maxDebris > 0; j += 2) {
+
+      // Copy ship face.
+
+      piece = takeDebris();
+      piece.set(ships[i], j);
+
+      // Set random rotation and motion.
+
+      piece.rx = random.nextDouble() * MAX_SPIN - 2 * MAX_SPIN;
+      piece.ry = random.nextDouble() * MAX_SPIN - 2 * MAX_SPIN;
+      piece.rz = random.nextDouble() * MAX_SPIN - 2 * MAX_SPIN;
+      piece.mx = random.nextDouble() * ships[i].speed / 2 - ships[i].speed / 4;
+      piece.my = random.nextDouble() * ships[i].speed / 2 - ships[i].speed / 4;
+      piece.mz = ships[i].speed +
+        random.nextDouble() * ships[i].speed / 2 - ships[i].speed / 4;
+
+      // Set counter.
+
+      piece.counter = DEBRIS_COUNT;
+      piece.active = true;
+    }
+  }
+
+  // Take a piece of debris from the pool. If none are free, reuse pieces in flight
+  // in turn, as the oldest are likely to be gone soonest.
+
+  private TGDebris takeDebris() {
+
+    int k;
+
+    if (numFree > 0) {
+      k = freeDebris[--numFree];
+      activeDebris[numActive++] = k;
+    }
+    else {
+      if (debrisIndex >= numActive)
+        debrisIndex = 0;
+      k = activeDebris[debrisIndex++];
+    }
+    return debris[k];
+  }
+
+  public void updateDebris() {
+
+    int i, j, n;
+
+    // Move any active debris. Pieces that are done go back on the free list and the
+    // rest stay on the active list, in the same order.
+
+    n = 0;
+    for (i = 0; i < numActive; i++) {
+      j = activeDebris[i];
+      if (debris[j].active) {
+        debris[j].ax += debris[j].rx;
+        if (debris[j].ax > 2 * Math.PI)
+          debris[j].ax -= 2 * Math.PI;
+        debris[j].ay += debris[j].ry;
+        if (debris[j].ay > 2 * Math.PI)
+          debris[j].ay -= 2 * Math.PI;
+        debris[j].az += debris[j].rz;
+        if (debris[j].az > 2 * Math.PI)
+          debris[j].az -= 2 * Math.PI;
+        debris[j].dx += debris[j].mx;
+        debris[j].dy += debris[j].my;
+        debris[j].dz += debris[j].mz;
+
+        // If too close, remove it. Otherwise render it.
+
+        if (debris[j].dz > END_DISTANCE) {
+          if (Math.abs(debris[j].dx) < MAG / 2 && Math.abs(debris[j].dy) < MAG / 2)
+            play(TGSound.DEBRIS);
+          debris[j].active = false;
+        }
+        else
+          list.add(debris[j]);
+
+        // Advance the counter.
+
+        if (--debris[j].counter <= 0)
+          debris[j].active = false;
+      }
+      if (debris[j].active)
+        activeDebris[n++] = j;
+      else
+        freeDebris[numFree++] = j;
+    }
+    numActive = n;
+  }
+
+  public void initDemo() {
+
+    int i;
+
+    gameState = DEMO;
+    demoIndex = 0;
+    for (i = 1; i < numShips; i++)
+      ships[i].reset(null);
+    setDemo();
+  }
+
+  public void setDemo() {
+
+    ships[0].reset(types[demoIndex]);
+    ships[0].ax = 0;
+    ships[0].ay = 0;
+    ships[0].a1 = Math.PI / 200;
+    ships[0].a2 = Math.PI / 50;
+    ships[0].dz = START_DISTANCE;
+    ships[0].color = demoIndex;
+    ships[0].speed = MAX_SPEED;
+    ships[0].savePose();
+    demoCounter = DEMO_COUNT;
+  }
+
+  public void updateDemo() {
+
+    if (--demoCounter <= 0) {
+      if (++demoIndex >= numTypes)
+        demoIndex = 0;
+      setDemo();
+    }
+    ships[0].ax += ships[0].a1;
+    if (Math.abs(ships[0].ax) > Math.PI / 6)
+      ships[0].a1 = -ships[0].a1;
+    ships[0].ay += ships[0].a2;
+    if (ships[0].ay > 2 * Math.PI)
+      ships[0].ay -= 2 * Math.PI;
+    if (ships[0].dz < DEMO_DISTANCE)
+      ships[0].dz += ships[0].speed;
+    else
+      ships[0].speed = 0;
+    ships[0].dist2 = ships[0].dist1;
+    ships[0].dist1 = Math.abs(ships[0].dz);
+    list.reset();
+    list.add(ships[0]);
+  }
+
+  public void mouseMove(int x, int y) {
+
+    if (replay != null && (x != mx || y != my))
+      replay.move(x, y);
+
+    // Get screen coordinates of mouse pointer.
+
+    mx = x;
+    my = y;
+  }
+
+  public void mouseDown(int x, int y) {
+
+    if (replay != null)
+      replay.down(x, y);
+
+    // Set firing flag.
+
+    if (!paused && gameState == PLAY) {
+      mx = x;
+      my = y;
+      firing = true;
+    }
+  }
+
+  public void togglePause() {
+
+    if (replay != null)
+      replay.pause();
+    paused = !paused;
+    firing = false;
+  }
+
+  static TGWorld layout(int numShips, int maxDebris, int numTypes) {
+
+    return new TGWorld(numShips, maxDebris, numTypes);
+  }
+
+  // Save, restore, size or compare everything that decides how the game goes on
+  // from here, in the order of a snapshot (see TGSnapshot). Once restored, the
+  // world is rendered so the draw list and screen index are ready as well. Types,
+  // faces and places in the pools are checked as they are read, so a bad snapshot
+  // fails rather than indexing past them.
+
+  public void transfer(TGSnapshot s) {
+
+    int i, k, f;
+    TGShip ship;
+    TGDebris piece;
+
+    s.at("world", -1);
+    seed = s.field("seed", seed);
+    random.state = s.field("random", random.state);
+    gameState = s.field("gameState", gameState);
+    paused = s.field("paused", paused);
+    firing = s.field("firing", firing);
+    fired = s.field("fired", fired);
+    blastCounter = s.field("blastCounter", blastCounter);
+    endCounter = s.field("endCounter", endCounter);
+    mx = s.field("mx", mx);
+    my = s.field("my", my);
+    score = s.field("score", score);
+    highScore = s.field("highScore", highScore);
+    shields = s.field("shields", shields);
+    shieldStart = s.field("shieldStart", shieldStart);
+    maxSpeed = s.field("maxSpeed", maxSpeed);
+    targeted = s.field("targeted", targeted);
+    targetRange = s.field("targetRange", targetRange);
+    targetSpeed = s.field("targetSpeed", targetSpeed);
+    demoIndex = s.field("demoIndex", demoIndex);
+    demoCounter = s.field("demoCounter", demoCounter);
+    scrnWidth = s.field("scrnWidth", scrnWidth);
+    scrnHeight = s.field("scrnHeight", scrnHeight);
+    for (i = 0; i < numTypes; i++) {
+      s.at("type", i);
+      kills[i] = s.field("kills", kills[i]);
+      escapes[i] = s.field("escapes", escapes[i]);
+      hits[i] = s.field("hits", hits[i]);
+    }
+    for (i = 0; i < NUM_STARS; i++) {
+      s.at("star", i);
+      starsX[i] = s.field("x", starsX[i]);
+      starsY[i] = s.field("y", starsY[i]);
+      starsAngle[i] = s.field("angle", starsAngle[i]);
+      starsRadius[i] = s.field("radius", starsRadius[i]);
+      starsMinRadius[i] = s.field("minRadius", starsMinRadius[i]);
+    }
+
+    // Ships, which are empty if they have no type.
+
+    for (i = 0; i < numShips; i++) {
+      s.at("ship", i);
+      ship = ships[i];
+      k = s.index("type", ship.template == null ? -1 : ship.type, -1, numTypes);
+      if (s.restoring()) {
+        ship.reset(k < 0 ? null : types[k]);
+        ship.type = Math.max(k, 0);
+      }
+      transferShip(s, ship);
+    }
+
+    // The debris pool and each piece, with the face of the ship type it is made
+    // from (or none if it was never used).
+
+    s.at("debris", -1);
+    numFree = s.index("numFree", numFree, 0, maxDebris + 1);
+    numActive = s.index("numActive", numActive, 0, maxDebris + 1);
+    debrisIndex = s.index("debrisIndex", debrisIndex, 0, maxDebris + 1);
+    for (i = 0; i < maxDebris; i++) {
+      s.at("debris", i);
+      freeDebris[i] = s.index("free", freeDebris[i], 0, maxDebris);
+      activeDebris[i] = s.index("activeList", activeDebris[i], 0, maxDebris);
+      piece = debris[i];
+      k = s.index("type", piece.mesh == TGMesh.EMPTY ? -1 : piece.type, -1, numTypes);
+      f = s.index("face", piece.face, 0, (k < 0) ? Integer.MAX_VALUE : types[k].debris.length);
+      if (s.restoring()) {
+        piece.setMesh(k < 0 ? TGMesh.EMPTY : types[k].debris[f]);
+        piece.type = Math.max(k, 0);
+        piece.face = f;
+      }
+      transferShip(s, piece);
+      piece.rx = s.field("rx", piece.rx);
+      piece.ry = s.field("ry", piece.ry);
+      piece.rz = s.field("rz", piece.rz);
+      piece.mx = s.field("mx", piece.mx);
+      piece.my = s.field("my", piece.my);
+      piece.mz = s.field("mz", piece.mz);
+      piece.active = s.field("active", piece.active);
+    }
+
+    // What is in the draw list, for each of the ships and then the debris. Not the
+    // order: every render sorts the list, including those in between ticks, so it
+    // is put back in order by the render at the end.
+
+    if (s.restoring())
+      list.reset();
+    else {
+      Arrays.fill(listed, false);
+      for (i = 0; i < list.numObjects; i++)
+        listed[((TGShip) list.objects[i]).id] = true;
+    }
+    for (i = 0; i < numShips + maxDebris; i++) {
+      s.at("list", i);
+      if (s.field("listed", listed[i]) && s.restoring())
+        list.add((i < numShips) ? ships[i] : debris[i - numShips]);
+    }
+
+    if (s.restoring())
+      render(1.0);
+  }
+
+  private void transferShip(TGSnapshot s, TGShip o) {
+
+    o.ax = s.field("ax", o.ax);
+    o.ay = s.field("ay", o.ay);
+    o.az = s.field("az", o.az);
+    o.m = s.field("m", o.m);
+    o.dx = s.field("dx", o.dx);
+    o.dy = s.field("dy", o.dy);
+    o.dz = s.field("dz", o.dz);
+    o.pax = s.field("pax", o.pax);
+    o.pay = s.field("pay", o.pay);
+    o.paz = s.field("paz", o.paz);
+    o.pdx = s.field("pdx", o.pdx);
+    o.pdy = s.field("pdy", o.pdy);
+    o.pdz = s.field("pdz", o.pdz);
+    o.level = s.index("level", o.level, 0, TGObject.LOD_RADII.length + 1);
+    o.color = s.field("color", o.color);
+    o.speed = s.field("speed", o.speed);
+    o.a1 = s.field("a1", o.a1);
+    o.a2 = s.field("a2", o.a2);
+    o.c1 = s.field("c1", o.c1);
+    o.c2 = s.field("c2", o.c2);
+    o.dist1 = s.field("dist1", o.dist1);
+    o.dist2 = s.field("dist2", o.dist2);
+    o.sounded = s.field("sounded", o.sounded);
+    o.exploding = s.field("exploding", o.exploding);
+    o.counter = s.field("counter", o.counter);
+  }
+
+  // A hash of everything that decides how the game goes on from here, for checking
+  // that a replay plays the same game as the recording.
+
+  public long checksum() {
+
+    long h;
+    int i;
+    TGShip s;
+    TGDebris d;
+
+    h = mix(0, seed);
+    h = mix(h, random.state);
+    h = mix(h, gameState); h = mix(h, paused ? 1 : 0); h = mix(h, firing ? 1 : 0);
+    h = mix(h, blastCounter); h = mix(h, endCounter);
+    h = mix(h, mx); h = mix(h, my);
+    h = mix(h, score); h = mix(h, highScore); h = mix(h, shields);
+    h = mix(h, targeted ? 1 : 0); h = mix(h, targetRange); h = mix(h, targetSpeed);
+    h = mix(h, demoIndex); h = mix(h, demoCounter);
+    h = mix(h, scrnWidth); h = mix(h, scrnHeight);
+    for (i = 0; i < NUM_STARS; i++) {
+      h = mix(h, starsX[i]); h = mix(h, starsY[i]);
+      h = mix(h, starsAngle[i]); h = mix(h, starsRadius[i]); h = mix(h, starsMinRadius[i]);
+    }
+    for (i = 0; i < numShips; i++) {
+      s = ships[i];
+      h = mix(h, s.type); h = mix(h, s.color); h = mix(h, s.counter);
+      h = mix(h, (s.exploding ? 1 : 0) | (s.sounded ? 2 : 0) | (s.template == null ? 4 : 0));
+      h = mix(h, s.dx); h = mix(h, s.dy); h = mix(h, s.dz);
+      h = mix(h, s.ax); h = mix(h, s.ay); h = mix(h, s.az);
+      h = mix(h, s.speed); h = mix(h, s.a1); h = mix(h, s.a2); h = mix(h, s.c1); h = mix(h, s.c2);
+      h = mix(h, s.dist1); h = mix(h, s.dist2);
+    }
+    h = mix(h, numActive); h = mix(h, debrisIndex);
+    for (i = 0; i < numActive; i++) {
+      d = debris[activeDebris[i]];
+      h = mix(h, activeDebris[i]); h = mix(h, d.color); h = mix(h, d.counter);
+      h = mix(h, d.dx); h = mix(h, d.dy); h = mix(h, d.dz);
+      h = mix(h, d.ax); h = mix(h, d.ay); h = mix(h, d.az);
+      h = mix(h, d.rx); h = mix(h, d.ry); h = mix(h, d.rz);
+      h = mix(h, d.mx); h = mix(h, d.my); h = mix(h, d.mz);
+    }
+    return h;
+  }
+
+  private static long mix(long h, double v) {
+
+    return mix(h, Double.doubleToLongBits(v));
+  }
+
+  private static long mix(long h, long v) {
+
+    h = (h ^ v) * 0x9e3779b97f4a7c15L;
+    return h ^ (h >>> 32);
+  }
+
+  private void play(int clip) {
+
+    if (sounds != null)
+      sounds.play(clip);
+  }
+}
+
+/******************************************************************************
+  The TGReplay class records the input to a TGWorld so the game can be played
+  again exactly, and plays recordings back. Everything random in the game comes
+  from the world's seeded generator, and the world renders itself every tick,
+  so the seed, the screen size and the input at each tick decide the whole
+  game, however often the screen was drawn.
+
+  A recording starts with a header: the magic number, version, seed, screen
+  size, ships in play, pieces of debris and number of ship types. Then comes a
+  byte for each record, followed by its values (see the constants below). A
+  run of ticks with no input is a single record, and a checksum of the world
+  is written every few seconds so a replay that goes wrong is caught near
+  where it happened. The world must be new, with the standard ship types and
+  balance settings, when recording starts.
+******************************************************************************/
+
+class TGReplay {
+
+  // Constants.
+
+  static final int MAGIC   = 0x54475250;
+  static final int VERSION = 3;
+
+  static final int TICKS = 0;    // Run ticks, count as an unsigned byte.
+  static final int MOVE  = 1;    // Mouse moved, x and y as shorts.
+  static final int DOWN  = 2;    // Mouse pressed, x and y as shorts.
+  static final int PAUSE = 3;    // Pause toggled.
+  static final int START = 4;    // Game started.
+  static final int SIZE  = 5;    // Screen resized, width and height as shorts.
+  static final int CHECK = 6;    // Checksum of the world so far, as a long.
+  static final int END   = 7;    // End of recording, ticks and checksum as longs.
+
+  static final int CHECK_TICKS = 100;    // Ticks between checksums (five seconds).
+
+  // Fields:
+
+  DataOutputStream out;
+  int              pending;    // Ticks not yet written.
+  long             ticks;      // Ticks recorded.
+  IOException      error;      // Why recording stopped, if it did.
+
+  // Constructors:
+
+  // Start recording a new world to the given stream.
+
+  public TGReplay(OutputStream out, TGWorld world) throws IOException {
+
+    this.out = new DataOutputStream(out);
+    this.out.writeInt(MAGIC);
+    this.out.writeShort(VERSION);
+    this.out.writeLong(world.seed);
+    this.out.writeShort(world.scrnWidth);
+    this.out.writeShort(world.scrnHeight);
+    this.out.writeShort(world.numShips);
+    this.out.writeShort(world.maxDebris);
+    this.out.writeShort(world.numTypes);
+  }
+
+  // Methods:
+
+  // Record input, called by the world before it acts on it. A write error stops
+  // the recording but not the game.
+
+  public void move(int x, int y) {
+
+    write(MOVE, x, y);
+  }
+
+  public void down(int x, int y) {
+
+    write(DOWN, x, y);
+  }
+
+  public void pause() {
+
+    write(PAUSE, 0, 0);
+  }
+
+  public void start() {
+
+    write(START, 0, 0);
+  }
+
+  public void size(int width, int height) {
+
+    write(SIZE, width, height);
+  }
+
+  // Record a tick, called by the world at the end of each one.
+
+  public void tick(TGWorld world) {
+
+    if (this.out == null)
+      return;
+    this.pending++;
+    this.ticks++;
+    if (this.pending == 255)
+      flush();
+    if (this.ticks % CHECK_TICKS == 0)
+      write(CHECK, world.checksum());
+  }
+
+  // Finish the recording and close the stream.
+
+  public void close(TGWorld world) {
+
+    if (this.out == null)
+      return;
+    try {
+      flush();
+      this.out.writeByte(END);
+      this.out.writeLong(this.ticks);
+      this.out.writeLong(world.checksum());
+      this.out.close();
+    }
+    catch (IOException e) {
+      this.error = e;
+    }
+    this.out = null;
+  }
+
+  private void write(int code, int a, int b) {
+
+    if (this.out == null)
+      return;
+    try {
+      flush();
+      this.out.writeByte(code);
+      if (code == MOVE || code == DOWN || code == SIZE) {
+        this.out.writeShort(a);
+        this.out.writeShort(b);
+      }
+    }
+    catch (IOException e) {
+      stop(e);
+    }
+  }
+
+  private void write(int code, long a) {
+
+    if (this.out == null)
+      return;
+    try {
+      flush();
+      this.out.writeByte(code);
+      this.out.writeLong(a);
+    }
+    catch (IOException e) {
+      stop(e);
+    }
+  }
+
+  private void flush() {
+
+    try {
+      if (this.pending > 0) {
+        this.out.writeByte(TICKS);
+        this.out.writeByte(this.pending);
+        this.pending = 0;
+      }
+    }
+    catch (IOException e) {
+      stop(e);
+    }
+  }
+
+  private void stop(IOException e) {
+
+    this.error = e;
+    try {
+      this.out.close();
+    }
+    catch (IOException f) {
+    }
+    this.out = null;
+  }
+
+  // Make a world like the recorded one was, from the header of a recording.
+
+  public static TGWorld open(DataInputStream in) throws IOException {
+
+    long seed;
+    int width, height, numShips, maxDebris, numTypes;
+    TGWorld world;
+
+    if (in.readInt() != MAGIC)
+      throw new IOException("Not a replay file");
+    if (in.readShort() != VERSION)
+      throw new IOException("Unknown replay file version");
+    seed = in.readLong();
+    width = in.readShort();
+    height = in.readShort();
+    numShips = in.readShort();
+    maxDebris = in.readShort();
+    numTypes = in.readShort();
+    world = new TGWorld(width, height, numShips, maxDebris, seed);
+    if (world.numTypes != numTypes)
+      throw new IOException("Recorded with " + numTypes + " ship types, not " + world.numTypes);
+    return world;
+  }
+
+  // Play the rest of a recording on the world made by open(), as fast as it will
+  // go, and return the number of ticks run. Throws an IOException if the game
+  // comes out differently from the recording. A recording cut off before its end
+  // (if the game was killed) plays as far as it goes.
+
+  public static long play(DataInputStream in, TGWorld world) throws IOException {
+
+    long ticks;
+    int code, i, n;
+
+    ticks = 0;
+    while (true) {
+      try {
+        code = in.readUnsignedByte();
+      }
+      catch (EOFException e) {
+        return ticks;
+      }
+      switch (code) {
+      case TICKS:
+        n = in.readUnsignedByte();
+        for (i = 0; i < n; i++)
+          world.step();
+        ticks += n;
+        break;
+      case MOVE:
+        world.mouseMove(in.readShort(), in.readShort());
+        break;
+      case DOWN:
+        world.mouseDown(in.readShort(), in.readShort());
+        break;
+      case PAUSE:
+        world.togglePause();
+        break;
+      case START:
+        world.initGame();
+        break;
+      case SIZE:
+        world.setSize(in.readShort(), in.readShort());
+        break;
+      case CHECK:
+        if (in.readLong() != world.checksum())
+          throw new IOException("Game differs from the recording by tick " + ticks);
+        break;
+      case END:
+        if (in.readLong() != ticks)
+          throw new IOException("Recording has the wrong number of ticks");
+        if (in.readLong() != world.checksum())
+          throw new IOException("Game differs from the recording at the end, tick " + ticks);
+        return ticks;
+      default:
+        throw new IOException("Bad record " + code + " after tick " + ticks);
+      }
+    }
+  }
+
+  // Play recordings headless and check they come out the same, reporting how much
+  // faster than real time they ran. Exits with an error if any do not.
+  //
+  // java -Djava.awt.headless=true TGReplay game.tgr ...
+
+  public static void main(String[] args) throws IOException {
+
+    DataInputStream in;
+    TGWorld world;
+    long start, time, ticks;
+    int i;
+    boolean failed;
+
+    if (args.length == 0) {
+      System.err.println("Usage: java TGReplay recording.tgr ...");
+      System.exit(1);
+    }
+    failed = false;
+    for (i = 0; i < args.length; i++) {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(args[i])));
+      try {
+        start = System.nanoTime();
+        world = open(in);
+        ticks = play(in, world);
+        time = System.nanoTime() - start;
+        System.out.println(args[i] + ": " + ticks + " ticks (" + ticks * TGWorld.DELAY / 1000 + " s) in " +
+                           time / 1000000 + " ms, " + ticks * TGWorld.DELAY * 1000000L / Math.max(1, time) +
+                           "x real time, score " + world.score + ", high score " + world.highScore);
+      }
+      catch (IOException e) {
+        System.out.println(args[i] + ": " + e.getMessage());
+        failed = true;
+      }
+      finally {
+        in.close();
+      }
+    }
+    if (failed)
+      System.exit(1);
+  }
+}
+
+/******************************************************************************
+  The TGSnapshot class saves the whole state of a TGWorld into a ByteBuffer and
+  restores it, so a game can be put away and picked up again exactly where it
+  was, or a situation set up once and reused. It also compares snapshots,
+  naming each value that differs.
+
+  A snapshot has a header (magic number, version, screen size, ships in play,
+  pieces of debris and number of ship types) and then every value of the
+  world in a fixed order, written by TGWorld.transfer(). The same code saves,
+  restores, sizes and compares, so they cannot fall out of step. The layout
+  only depends on the numbers in the header, so snapshots of worlds of the
+  same size are the same size, and are compared value by value. Values are
+  written straight to and read straight from the buffer, which may be a
+  direct or memory-mapped one, and restoring reuses the objects of the world.
+******************************************************************************/
+
+class TGSnapshot {
+
+  // Constants.
+
+  static final int MAGIC   = 0x54475353;
+  static final int VERSION = 2;
+
+  static final int HEADER = 26;    // Bytes in the header.
+
+  static final int SIZE = 0;    // What transfer() does with each value: count its
+  static final int SAVE = 1;    // bytes, write it, read it or read it from two
+  static final int LOAD = 2;    // snapshots and compare.
+  static final int DIFF = 3;
+
+  // Fields:
+
+  int        mode;
+  int        size;      // Bytes counted.
+  ByteBuffer buffer;
+  ByteBuffer other;     // Snapshot compared against.
+
+  String        group;  // Where the values being compared are, and what
+  int           index;  // differed.
+  StringBuilder diffs;
+
+  // Constructors:
+
+  private TGSnapshot(int mode, ByteBuffer buffer, ByteBuffer other) {
+
+    this.mode = mode;
+    this.buffer = buffer;
+    this.other = other;
+  }
+
+  // Methods:
+
+  // Bytes needed for a snapshot of the world.
+
+  public static int size(TGWorld world) {
+
+    TGSnapshot s;
+
+    s = new TGSnapshot(SIZE, null, null);
+    world.transfer(s);
+    return HEADER + s.size;
+  }
+
+  // Save the world at the buffer's position, advancing it past the snapshot.
+
+  public static void save(TGWorld world, ByteBuffer buffer) {
+
+    buffer.putInt(MAGIC);
+    buffer.putShort((short) VERSION);
+    buffer.putInt(world.scrnWidth);
+    buffer.putInt(world.scrnHeight);
+    buffer.putInt(world.numShips);
+    buffer.putInt(world.maxDebris);
+    buffer.putInt(world.numTypes);
+    world.transfer(new TGSnapshot(SAVE, buffer, null));
+  }
+
+  // Restore the world from the snapshot at the buffer's position. The world must
+  // have the same number of ships, pieces of debris and ship types.
+
+  public static void restore(TGWorld world, ByteBuffer buffer) {
+
+    int[] header;
+
+    header = header(buffer);
+    if (header[2] != world.numShips || header[3] != world.maxDebris || header[4] != world.numTypes)
+      throw new IllegalArgumentException("Snapshot is of a world with " + header[2] + " ships, " +
+                                         header[3] + " pieces of debris and " + header[4] + " ship types");
+    world.transfer(new TGSnapshot(LOAD, buffer, null));
+  }
+
+  // Make a world the size of the one in the snapshot, and restore it. The header
+  // is checked against the ship types before anything is made.
+
+  public static TGWorld newWorld(ByteBuffer buffer) {
+
+    int[] header;
+    TGShipFile file;
+    TGWorld world;
+
+    header = header(buffer.duplicate());
+    file = TGWorld.loadShipTypes();
+    if (header[2] < 0 || header[3] < 0 || header[4] != file.numTypes)
+      throw new IllegalArgumentException("Snapshot is of a world with " + header[2] + " ships, " +
+                                         header[3] + " pieces of debris and " + header[4] + " ship types");
+    world = new TGWorld(header[0], header[1], header[2], header[3], 0, file);
+    restore(world, buffer);
+    return world;
+  }
+
+  // Compare two snapshots. Returns null if they are the same, or a line for each
+  // value that differs. The values are read from both buffers in the order
+  // transfer() walks them, over a bare layout of the world, so no ship types are
+  // loaded and no ships or debris are made.
+
+  public static String diff(ByteBuffer a, ByteBuffer b) {
+
+    int[] ha, hb;
+    TGWorld world;
+    TGSnapshot s;
+
+    a = a.duplicate();
+    b = b.duplicate();
+    ha = header(a);
+    hb = header(b);
+    if (ha[2] != hb[2] || ha[3] != hb[3] || ha[4] != hb[4])
+      return "header: " + Arrays.toString(ha) + " != " + Arrays.toString(hb) + "\n";
+    if (ha[2] < 0 || ha[3] < 0 || ha[4] < 0)
+      throw new IllegalArgumentException("Bad snapshot header: " + Arrays.toString(ha));
+    world = TGWorld.layout(ha[2], ha[3], ha[4]);
+    s = new TGSnapshot(DIFF, a, b);
+    s.diffs = new StringBuilder();
+    world.transfer(s);
+    return (s.diffs.length() > 0) ? s.diffs.toString() : null;
+  }
+
+  // Read and check a header, returning the screen size and the numbers of ships,
+  // debris and types.
+
+  private static int[] header(ByteBuffer buffer) {
+
+    if (buffer.getInt() != MAGIC)
+      throw new IllegalArgumentException("Not a snapshot");
+    if (buffer.getShort() != VERSION)
+      throw new IllegalArgumentException("Unknown snapshot version");
+    return new int[] { buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt() };
+  }
+
+  // Whether values are being read into the world, so it should be set up to take
+  // them.
+
+  public boolean restoring() {
+
+    return this.mode == LOAD;
+  }
+
+  // Name the part of the world the next values belong to, for comparisons.
+
+  public void at(String group, int index) {
+
+    this.group = group;
+    this.index = index;
+  }
+
+  // Pass one value of the world. Each returns the value to put back in the world:
+  // the one read when restoring, or the one given otherwise.
+
+  public int field(String name, int v) {
+
+    int a, b;
+
+    switch (this.mode) {
+    case SIZE:
+      this.size += 4;
+      return v;
+    case SAVE:
+      this.buffer.putInt(v);
+      return v;
+    case LOAD:
+      return this.buffer.getInt();
+    default:
+      a = this.buffer.getInt();
+      b = this.other.getInt();
+      if (a != b)
+        differ(name, a + " != " + b);
+      return v;
+    }
+  }
+
+  public long field(String name, long v) {
+
+    long a, b;
+
+    switch (this.mode) {
+    case SIZE:
+      this.size += 8;
+      return v;
+    case SAVE:
+      this.buffer.putLong(v);
+      return v;
+    case LOAD:
+      return this.buffer.getLong();
+    default:
+      a = this.buffer.getLong();
+      b = this.other.getLong();
+      if (a != b)
+        differ(name, a + " != " + b);
+      return v;
+    }
+  }
+
+  public double field(String name, double v) {
+
+    long a, b;
+
+    switch (this.mode) {
+    case SIZE:
+      this.size += 8;
+      return v;
+    case SAVE:
+      this.buffer.putDouble(v);
+      return v;
+    case LOAD:
+      return this.buffer.getDouble();
+    default:
+      a = this.buffer.getLong();
+      b = this.other.getLong();
+      if (a != b)
+        differ(name, Double.longBitsToDouble(a) + " != " + Double.longBitsToDouble(b));
+      return v;
+    }
+  }
+
+  public boolean field(String name, boolean v) {
+
+    byte a, b;
+
+    switch (this.mode) {
+    case SIZE:
+      this.size += 1;
+      return v;
+    case SAVE:
+      this.buffer.put((byte) (v ? 1 : 0));
+      return v;
+    case LOAD:
+      return this.buffer.get() != 0;
+    default:
+      a = this.buffer.get();
+      b = this.other.get();
+      if (a != b)
+        differ(name, (a != 0) + " != " + (b != 0));
+      return v;
+    }
+  }
+
+  // Pass a value that is used as a place in the world, checking when restoring that
+  // it is at least min and less than max.
+
+  public int index(String name, int v, int min, int max) {
+
+    v = field(name, v);
+    if (this.mode == LOAD && (v < min || v >= max))
+      throw new IllegalArgumentException("Bad snapshot: " + this.group +
+                                         ((this.index >= 0) ? "[" + this.index + "]" : "") +
+                                         "." + name + " is " + v);
+    return v;
+  }
+
+  private void differ(String name, String values) {
+
+    this.diffs.append(this.group);
+    if (this.index >= 0)
+      this.diffs.append('[').append(this.index).append(']');
+    this.diffs.append('.').append(name).append(": ").append(values).append('\n');
+  }
+
+  // Save the world to a file, or read one to restore from.
+
+  public static void write(TGWorld world, File file) throws IOException {
+
+    ByteBuffer buffer;
+    FileOutputStream out;
+
+    buffer = ByteBuffer.allocateDirect(size(world));
+    save(world, buffer);
+    buffer.flip();
+    out = new FileOutputStream(file);
+    try {
+      while (buffer.hasRemaining())
+        out.getChannel().write(buffer);
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  public static ByteBuffer read(File file) throws IOException {
+
+    ByteBuffer buffer;
+    FileInputStream in;
+
+    in = new FileInputStream(file);
+    try {
+      buffer = ByteBuffer.allocateDirect((int) in.getChannel().size());
+      while (buffer.hasRemaining())
+        if (in.getChannel().read(buffer) < 0)
+          throw new EOFException(file.getPath());
+    }
+    finally {
+      in.close();
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  // Compare two snapshot files, exiting with an error if they differ.
+  //
+  // java -Djava.awt.headless=true TGSnapshot a.tgs b.tgs
+
+  public static void main(String[] args) throws IOException {
+
+    String d;
+
+    if (args.length != 2) {
+      System.err.println("Usage: java TGSnapshot a.tgs b.tgs");
+      System.exit(1);
+    }
+    d = diff(read(new File(args[0])), read(new File(args[1])));
+    if (d != null) {
+      System.out.print(d);
+      System.exit(1);
+    }
+    System.out.println("Same");
+  }
+}
+
+/******************************************************************************
+  The TGGunner interface is for players other than the one at the mouse. A
+  gunner is asked to aim before each tick, and does so through the world's
+  mouseMove() and mouseDown(), just as the mouse does.
+******************************************************************************/
+
+interface TGGunner {
+
+  public void aim(TGWorld world);
+}
+
+/******************************************************************************
+  The TGRandomGunner class is a scripted gunner that wanders around the middle
+  of the screen, firing at random. Its random numbers are its own, so it plays
+  the same way every time from the same seed.
+******************************************************************************/
+
+class TGRandomGunner implements TGGunner {
+
+  // Fields:
+
+  SplittableRandom random;
+
+  // Constructors:
+
+  public TGRandomGunner(long seed) {
+
+    this.random = new SplittableRandom(seed);
+  }
+
+  // Methods:
+
+  public void aim(TGWorld world) {
+
+    int w, h;
+
+    w = Math.max(1, world.scrnWidth / 3);
+    h = Math.max(1, world.scrnHeight / 5);
+    world.mouseMove(world.scrnWidth / 2 + this.random.nextInt(w) - w / 2,
+                    world.scrnHeight / 2 + this.random.nextInt(h) - h / 2);
+    if (this.random.nextInt(3) == 0)
+      world.mouseDown(world.mx, world.my);
+  }
+}
+
+/******************************************************************************
+  The TGAimGunner class is a gunner that goes for the closest ship on the
+  screen. It moves the crosshairs toward the middle of the ship's bounds as of
+  the last tick, no faster than a set speed, and fires once they are inside.
+  It uses nothing random, and nothing drawn in between ticks, so it plays the
+  same game every time for a given seed however often the screen is updated.
+******************************************************************************/
+
+class TGAimGunner implements TGGunner {
+
+  // Constants.
+
+  static final int SPEED = 6;    // Default pixels the crosshairs move in a tick,
+                                // which plays about as well as a fair player.
+
+  // Fields:
+
+  int speed;
+
+  // Constructors:
+
+  public TGAimGunner() {
+
+    this(SPEED);
+  }
+
+  public TGAimGunner(int speed) {
+
+    this.speed = speed;
+  }
+
+  // Methods:
+
+  public void aim(TGWorld world) {
+
+    TGShip s, target;
+    int i, x, y, dx, dy;
+    double d;
+
+    // Find the closest ship on the screen that has not been hit. The bounds used
+    // for hitting are the ones kept from the last tick (see TGObject.render()).
+
+    target = null;
+    for (i = 0; i < world.numShips; i++) {
+      s = world.ships[i];
+      if (s.template == null || s.exploding || s.hitMinX > s.hitMaxX)
+        continue;
+      if (target == null || s.dist1 < target.dist1)
+        target = s;
+    }
+    if (target == null)
+      return;
+
+    // Move toward the middle of its bounds, and fire if on it.
+
+    x = (target.hitMinX + target.hitMaxX) / 2;
+    y = (target.hitMinY + target.hitMaxY) / 2;
+    dx = x - world.mx;
+    dy = y - world.my;
+    d = Math.sqrt(dx * dx + dy * dy);
+    if (d > this.speed) {
+      x = world.mx + (int) Math.round(dx * this.speed / d);
+      y = world.my + (int) Math.round(dy * this.speed / d);
+    }
+    world.mouseMove(x, y);
+    if (x >= target.hitMinX && x <= target.hitMaxX && y >= target.hitMinY && y <= target.hitMaxY)
+      world.mouseDown(x, y);
+  }
+}
+
+/******************************************************************************
+  The TGClock class times a fixed-timestep loop. Given the time at the start of
+  each screen update, it gives the number of fixed length ticks to run to keep
+  up with real time, and how far the update falls between the last tick and
+  the next one, for rendering the ships in between. It also keeps statistics
+  on frame times and ticks run.
+******************************************************************************/
+
+class TGClock {
+
+  // Fields:
+
+  long stepNanos;       // Length of one tick.
+  int  maxSteps;        // Most ticks to run for one update.
+  long accumulator;     // Time not yet run.
+  long lastTime;        // Start of the previous update.
+
+  volatile long   frameNanos;      // Length of the last update.
+  volatile double averageNanos;    // Running average of the above.
+  volatile int    steps;           // Ticks run for the last update.
+  volatile long   totalSteps;
+  volatile long   totalFrames;
+  volatile long   droppedNanos;    // Time skipped when too far behind.
+
+  // Constructors:
+
+  public TGClock(long stepNanos, int maxSteps) {
+
+    this.stepNanos = stepNanos;
+    this.maxSteps = maxSteps;
+  }
+
+  // Methods:
+
+  // Start timing from the given time.
+
+  public void reset(long now) {
+
+    this.lastTime = now;
+    this.accumulator = 0;
+  }
+
+  // Start a new update at the given time and return the number of ticks to run.
+  // If more than maxSteps are due, the extra time is dropped so a slow machine
+  // runs the game slower rather than falling further and further behind.
+
+  public int advance(long now) {
+
+    int n;
+
+    this.frameNanos = now - this.lastTime;
+    this.lastTime = now;
+    this.accumulator += this.frameNanos;
+    n = (int) Math.min(this.accumulator / this.stepNanos, Integer.MAX_VALUE);
+    if (n > this.maxSteps) {
+      this.droppedNanos += (n - this.maxSteps) * this.stepNanos;
+      this.accumulator -= (n - this.maxSteps) * this.stepNanos;
+      n = this.maxSteps;
+    }
+    this.accumulator -= n * this.stepNanos;
+    this.steps = n;
+    this.totalSteps += n;
+    this.totalFrames++;
+    if (this.averageNanos == 0)
+      this.averageNanos = this.frameNanos;
+    else
+      this.averageNanos += (this.frameNanos - this.averageNanos) / 16;
+    return n;
+  }
+
+  // Fraction of a tick that has passed since the last one was run.
+
+  public double alpha() {
+
+    return (double) this.accumulator / this.stepNanos;
+  }
+
+  // Screen updates per second, averaged.
+
+  public double frameRate() {
+
+    return (this.averageNanos > 0) ? 1000000000.0 / this.averageNanos : 0;
+  }
+}
+
+/******************************************************************************
+  The TGHistogram class counts nanosecond times in buckets, for percentiles.
+  Like HdrHistogram, the buckets are log-linear: each power of two is split
+  into 16 equal buckets, so any value is known to within about 6% using a
+  few thousand counters in all. Counts are kept in atomic arrays, so times
+  may be recorded on one thread and read on another without locking. A
+  percentile read while times are being recorded may be off by those times.
+******************************************************************************/
+
+class TGHistogram {
+
+  // Constants.
+
+  static final int SUB_BITS    = 4;                                // Buckets per power of two,
+  static final int SUB_COUNT   = 1 << SUB_BITS;                    // as bits and as a count.
+  static final int NUM_BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+  // Fields:
+
+  AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+  AtomicLong      total  = new AtomicLong();
+  AtomicLong      max    = new AtomicLong();
+
+  // Methods:
+
+  // Count a time. Negative times count as zero.
+
+  public void record(long value) {
+
+    long m;
+
+    value = Math.max(0, value);
+    this.counts.incrementAndGet(bucket(value));
+    this.total.incrementAndGet();
+    while (value > (m = this.max.get()) && !this.max.compareAndSet(m, value))
+      ;
+  }
+
+  // The time that the given percent of all times are at or below, to within the
+  // width of its bucket.
+
+  public long percentile(double percent) {
+
+    long n, rank, sum;
+    int i;
+
+    n = this.total.get();
+    if (n == 0)
+      return 0;
+    rank = Math.max(1, (long) Math.ceil(percent / 100 * n));
+    sum = 0;
+    for (i = 0; i < NUM_BUCKETS; i++) {
+      sum += this.counts.get(i);
+      if (sum >= rank)
+        return Math.min(highest(i), this.max.get());
+    }
+    return this.max.get();
+  }
+
+  public long count() {
+
+    return this.total.get();
+  }
+
+  public long max() {
+
+    return this.max.get();
+  }
+
+  // Start counting over.
+
+  public void reset() {
+
+    int i;
+
+    for (i = 0; i < NUM_BUCKETS; i++)
+      this.counts.set(i, 0);
+    this.total.set(0);
+    this.max.set(0);
+  }
+
+  // Values below twice the bucket count have a bucket each. Above that, a value
+  // goes by its top bits, shifted down to make the top one fall in the upper half
+  // of the buckets for one power of two.
+
+  static int bucket(long value) {
+
+    int shift;
+
+    if (value < 2 * SUB_COUNT)
+      return (int) value;
+    shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+    return shift * SUB_COUNT + (int) (value >>> shift);
+  }
+
+  // The largest value that goes in a bucket.
+
+  static long highest(int bucket) {
+
+    int shift;
+
+    if (bucket < 2 * SUB_COUNT)
+      return bucket;
+    shift = bucket / SUB_COUNT - 1;
+    return ((long) (bucket % SUB_COUNT + SUB_COUNT + 1) << shift) - 1;
+  }
+}
+
+/******************************************************************************
+  The TGMetrics class keeps a histogram of the time taken by each stage of a
+  screen update. Stages on the game thread are recorded there and those that
+  paint the screen on the painting thread. Each stage's latest time is also
+  kept, for the flight recorder events.
+******************************************************************************/
+
+class TGMetrics {
+
+  // Constants.
+
+  static final int STEP   = 0;    // Game ticks run for one update, with their rendering.
+  static final int RENDER = 1;    // Projecting the ships and debris (TGWorld.render()).
+  static final int SORT   = 2;    // Putting faces in drawing order and indexing the screen.
+  static final int FRAME  = 3;    // All of the above and the copy to the painting thread.
+  static final int RASTER = 4;    // Filling in the offscreen image with ships and stars.
+  static final int HUD    = 5;    // Beams, target box and text.
+  static final int BLIT   = 6;    // Copying the offscreen image to the screen.
+
+  static final int NUM_STAGES = 7;
+
+  static final String[] STAGE_NAMES = { "Step", "Render", "Sort", "Frame", "Raster", "HUD", "Blit" };
+
+  // Fields:
+
+  TGHistogram[] stages = new TGHistogram[NUM_STAGES];
+  long[]        last   = new long[NUM_STAGES];
+
+  // Constructors:
+
+  public TGMetrics() {
+
+    int i;
+
+    for (i = 0; i < NUM_STAGES; i++)
+      this.stages[i] = new TGHistogram();
+  }
+
+  // Methods:
+
+  public void record(int stage, long nanos) {
+
+    this.last[stage] = nanos;
+    this.stages[stage].record(nanos);
+  }
+
+  public void reset() {
+
+    int i;
+
+    for (i = 0; i < NUM_STAGES; i++)
+      this.stages[i].reset();
+  }
+}
+
+/******************************************************************************
+  The TGFrameEvent and TGPaintEvent classes are JDK Flight Recorder events,
+  one for each screen update on the game thread and one for each time the
+  screen is painted. They are only made while a recording that includes them
+  is running (e.g. java -XX:StartFlightRecording ...), so otherwise they cost
+  nothing, and show up under "Tail Gunner".
+******************************************************************************/
+
+@jdk.jfr.Name("TailGunner.Frame")
+@jdk.jfr.Label("Frame")
+@jdk.jfr.Category("Tail Gunner")
+@jdk.jfr.Description("One screen update on the game thread")
+class TGFrameEvent extends jdk.jfr.Event {
+
+  // Constants.
+
+  static final jdk.jfr.EventType TYPE = jdk.jfr.EventType.getEventType(TGFrameEvent.class);
+
+  // Fields:
+
+  @jdk.jfr.Label("Ticks")
+  int steps;
+  @jdk.jfr.Label("Step") @jdk.jfr.Timespan
+  long step;
+  @jdk.jfr.Label("Render") @jdk.jfr.Timespan
+  long render;
+  @jdk.jfr.Label("Sort") @jdk.jfr.Timespan
+  long sort;
+  @jdk.jfr.Label("Objects")
+  int objects;
+  @jdk.jfr.Label("Debris")
+  int debris;
+  @jdk.jfr.Label("Faces Drawn")
+  int faces;
+  @jdk.jfr.Label("Faces Culled")
+  int culled;
+}
+
+@jdk.jfr.Name("TailGunner.Paint")
+@jdk.jfr.Label("Paint")
+@jdk.jfr.Category("Tail Gunner")
+@jdk.jfr.Description("One screen painted from the latest frame")
+class TGPaintEvent extends jdk.jfr.Event {
+
+  // Constants.
+
+  static final jdk.jfr.EventType TYPE = jdk.jfr.EventType.getEventType(TGPaintEvent.class);
+
+  // Fields:
+
+  @jdk.jfr.Label("Raster") @jdk.jfr.Timespan
+  long raster;
+  @jdk.jfr.Label("HUD") @jdk.jfr.Timespan
+  long hud;
+  @jdk.jfr.Label("Blit") @jdk.jfr.Timespan
+  long blit;
+  @jdk.jfr.Label("Polygons")
+  int polygons;
+}
+
+/******************************************************************************
+  The TGFrame class is a snapshot of everything needed to draw one screen of
+  the game: the polygons of all ships and debris in drawing order, the stars
+  and the values shown on the display. It is filled in by the game thread and
+  then only read by the thread painting the screen.
+******************************************************************************/
+
+class TGFrame {
+
+  // Fields:
+
+  int       numPolygons;    // Polygons in drawing order, with the color index
+  Polygon[] polygons;       // and shade of each.
+  int[]     colors;
+  int[]     shades;
+
+  int[] starsX = new int[TGWorld.NUM_STARS];
+  int[] starsY = new int[TGWorld.NUM_STARS];
+
+  int     gameState;
+  boolean paused;
+  boolean fired;
+  int     blastCounter;
+  int     mx, my;
+  int     score;
+  int     highScore;
+  int     shields;
+  boolean targeted;
+  int     targetRange;
+  int     targetSpeed;
+  int     demoIndex;
+
+  int numObjects;    // Counts for the frame statistics: ships and debris
+  int numDebris;     // rendered, debris in flight and faces left out.
+  int numCulled;
+
+  // Constructors:
+
+  public TGFrame() {
+
+    this.numPolygons = 0;
+    this.polygons = new Polygon[64];
+    this.colors = new int[64];
+    this.shades = new int[64];
+  }
+
+  // Methods:
+
+  // Copy the current state of the game. The polygon buffers are reused from the
+  // last time this frame was filled in.
+
+  public void capture(TGWorld w) {
+
+    int i, j, k, n;
+    TGDrawList list;
+    TGShip shape;
+    Polygon from, to;
+
+    list = w.list;
+    n = list.numEntries;
+    if (n > this.polygons.length) {
+      this.polygons = copyOf(this.polygons, Math.max(n, 2 * this.polygons.length));
+      this.colors = new int[this.polygons.length];
+      this.shades = new int[this.polygons.length];
+    }
+    for (i = 0; i < n; i++) {
+      shape = (TGShip) list.objects[list.entryObjects[i]];
+      j = list.entryPolygons[i];
+      from = shape.polygons[j];
+      to = this.polygons[i];
+      if (to == null || to.xpoints.length < from.npoints) {
+        to = new Polygon();
+        to.xpoints = new int[Math.max(8, from.npoints)];
+        to.ypoints = new int[Math.max(8, from.npoints)];
+        this.polygons[i] = to;
+      }
+      for (k = 0; k < from.npoints; k++) {
+        to.xpoints[k] = from.xpoints[k];
+        to.ypoints[k] = from.ypoints[k];
+      }
+      to.npoints = from.npoints;
+      to.invalidate();
+      this.colors[i] = shape.color;
+      this.shades[i] = shape.shades[j];
+    }
+    this.numPolygons = n;
+
+    System.arraycopy(w.starsX, 0, this.starsX, 0, TGWorld.NUM_STARS);
+    System.arraycopy(w.starsY, 0, this.starsY, 0, TGWorld.NUM_STARS);
+
+    this.gameState = w.gameState;
+    this.paused = w.paused;
+    this.fired = w.fired;
+    this.blastCounter = w.blastCounter;
+    this.mx = w.mx;
+    this.my = w.my;
+    this.score = w.score;
+    this.highScore = w.highScore;
+    this.shields = w.shields;
+    this.targeted = w.targeted;
+    this.targetRange = w.targetRange;
+    this.targetSpeed = w.targetSpeed;
+    this.demoIndex = w.demoIndex;
+
+    this.numObjects = list.numObjects;
+    this.numDebris = w.numActive;
+    this.numCulled = w.numCulled;
+  }
+
+  private static Polygon[] copyOf(Polygon[] a, int n) {
+
+    Polygon[] b;
+
+    b = new Polygon[n];
+    System.arraycopy(a, 0, b, 0, a.length);
+    return b;
+  }
+}
+
+/******************************************************************************
+  The TGFrameBuffer class passes TGFrames from the game thread to the painting
+  thread without either one waiting on the other (triple buffering).
+
+  There are three frames. The game thread fills in the back frame and then
+  publishes it by swapping it with the middle one. The painting thread takes
+  the middle frame, if it is newer than the one it has, by swapping it with its
+  front frame. The swaps are single atomic operations, so neither thread ever
+  blocks, and a frame is never written while it is being painted.
+******************************************************************************/
+
+class TGFrameBuffer {
+
+  // Constants.
+
+  static final int FRESH = 4;    // Set when the middle frame has not been taken.
+
+  // Fields:
+
+  TGFrame[] frames = { new TGFrame(), new TGFrame(), new TGFrame() };
+
+  private int back  = 0;                                           // Game thread only.
+  private int front = 1;                                           // Painting thread only.
+  private AtomicInteger middle = new AtomicInteger(2);             // Shared.
+  private boolean missed;                                          // Game thread only.
+
+  // Methods:
+
+  // The frame for the game thread to fill in.
+
+  public TGFrame back() {
+
+    return this.frames[this.back];
+  }
+
+  // Make the back frame available to the painting thread. If the frame it
+  // replaces was never painted and showed a shot, the shot is carried into the
+  // next frame published so its beams are still drawn.
+
+  public void publish() {
+
+    int old;
+
+    if (this.missed)
+      this.frames[this.back].fired = true;
+    old = this.middle.getAndSet(this.back | FRESH);
+    this.back = old & 3;
+    this.missed = (old & FRESH) != 0 && this.frames[this.back].fired;
+  }
+
+  // The most recently published frame, for the painting thread.
+
+  public TGFrame latest() {
+
+    if ((this.middle.get() & FRESH) != 0)
+      this.front = this.middle.getAndSet(this.front) & 3;
+    return this.frames[this.front];
+  }
+}
+
+/******************************************************************************
+  The TGRaster class draws the ships, debris and stars of a TGFrame straight
+  into the pixels of an image, without going through Java2D. Colors come from
+  tables of every shade of each ship color, made once.
+
+  The screen is divided into square tiles. The polygons are first sorted into
+  bins, one for each tile they cover, keeping the drawing order. Each tile is
+  then cleared and filled on its own, from its bin, writing only its own
+  pixels, so the tiles can be filled at the same time on the fork/join pool
+  and the result is the same as filling them one after the other.
+******************************************************************************/
+
+class TGRaster {
+
+  // Constants.
+
+  static final int TILE_SIZE         = 64;    // Width and height of a tile in pixels.
+  static final int PARALLEL_POLYGONS = 64;    // Fewest polygons to fill in parallel.
+
+  // Pixel values for each ship color (by color index times 256 plus shade), and
+  // the inverted gray shades used while being blasted.
+
+  static final int[] PALETTE       = new int[TGWorld.NUM_COLORS * 256];
+  static final int[] BLAST_PALETTE = new int[256];
+
+  static {
+    int c;
+
+    for (c = 0; c < 256; c++) {
+      PALETTE[c]        = rgb(c, c / 2, c / 2);
+      PALETTE[256 + c]  = rgb(c / 2, c, c / 2);
+      PALETTE[512 + c]  = rgb(c / 2, c / 2, c);
+      PALETTE[768 + c]  = rgb(0, c, c);
+      PALETTE[1024 + c] = rgb(c, 0, c);
+      PALETTE[1280 + c] = rgb(c, c, 0);
+      BLAST_PALETTE[c]  = rgb(255 - c, 255 - c, 255 - c);
+    }
+  }
+
+  // Fields:
+
+  int           width, height;
+  int           tileSize;
+  int           columns, rows;
+  BufferedImage image;
+  int[]         pixels;       // The image's pixels, a row at a time.
+
+  int[] lefts, rights;        // Screen bounding box of each polygon (right and
+  int[] tops, bottoms;        // bottom not included), and its pixel value.
+  int[] values;
+
+  int[] tileStart;            // Start of each tile's entries in tileItems.
+  int[] tileItems;            // Polygons covering each tile, in drawing order.
+  int[] counts;               // Scratch space for binning.
+
+  double[][] crossings;       // Scratch space for each tile.
+
+  boolean parallel = true;    // Fill tiles on the fork/join pool when it pays.
+
+  // Constructors:
+
+  public TGRaster(int width, int height) {
+
+    this(width, height, TILE_SIZE);
+  }
+
+  public TGRaster(int width, int height, int tileSize) {
+
+    int i, tiles;
+
+    this.width = width;
+    this.height = height;
+    this.tileSize = tileSize;
+    this.columns = Math.max(1, (width + tileSize - 1) / tileSize);
+    this.rows = Math.max(1, (height + tileSize - 1) / tileSize);
+    this.image = new BufferedImage(Math.max(1, width), Math.max(1, height), BufferedImage.TYPE_INT_RGB);
+    this.pixels = ((DataBufferInt) this.image.getRaster().getDataBuffer()).getData();
+    ensure(64);
+    tiles = this.columns * this.rows;
+    this.tileStart = new int[tiles + 1];
+    this.tileItems = new int[64];
+    this.counts = new int[tiles];
+    this.crossings = new double[tiles][];
+    for (i = 0; i < tiles; i++)
+      this.crossings[i] = new double[8];
+  }
+
+  // Methods:
+
+  // Draw the background, stars, ships and debris of a frame, moved by the given
+  // amount (to shake the view).
+
+  public void draw(TGFrame frame, int xoffset, int yoffset) {
+
+    int i, j, n, r, c, tiles, points;
+    int[] palette, xs, ys;
+    int left, right, top, bottom;
+    Polygon p;
+
+    // Find the bounding box and pixel value of each polygon, and count the polygons
+    // in each tile. Polygons that miss the screen are left out.
+
+    ensure(frame.numPolygons);
+    tiles = this.columns * this.rows;
+    for (i = 0; i < tiles; i++)
+      this.counts[i] = 0;
+    palette = frame.blastCounter > 0 ? BLAST_PALETTE : PALETTE;
+    n = points = 0;
+    for (i = 0; i < frame.numPolygons; i++) {
+      p = frame.polygons[i];
+      xs = p.xpoints;
+      ys = p.ypoints;
+      left = right = xs[0];
+      top = bottom = ys[0];
+      for (j = 1; j < p.npoints; j++) {
+        left = Math.min(left, xs[j]); right = Math.max(right, xs[j]);
+        top = Math.min(top, ys[j]);   bottom = Math.max(bottom, ys[j]);
+      }
+      left = Math.max(0, left + xoffset);   right = Math.min(this.width, right + xoffset);
+      top = Math.max(0, top + yoffset);     bottom = Math.min(this.height, bottom + yoffset);
+      if (left >= right || top >= bottom) {
+        this.rights[i] = this.lefts[i] = 0;
+        continue;
+      }
+      this.lefts[i] = left;  this.rights[i] = right;
+      this.tops[i] = top;    this.bottoms[i] = bottom;
+      if (frame.blastCounter > 0)
+        this.values[i] = palette[Math.max(0, Math.min(255, frame.shades[i]))];
+      else if (frame.colors[i] >= 0 && frame.colors[i] < TGWorld.NUM_COLORS)
+        this.values[i] = palette[256 * frame.colors[i] + Math.max(0, Math.min(255, frame.shades[i]))];
+      else
+        this.values[i] = 0;
+      points = Math.max(points, p.npoints);
+      for (r = top / this.tileSize; r <= (bottom - 1) / this.tileSize; r++)
+        for (c = left / this.tileSize; c <= (right - 1) / this.tileSize; c++) {
+          this.counts[r * this.columns + c]++;
+          n++;
+        }
+    }
+
+    // Find where each tile's bin starts, then fill in the bins.
+
+    for (i = 0; i < tiles; i++) {
+      this.tileStart[i + 1] = this.tileStart[i] + this.counts[i];
+      this.counts[i] = this.tileStart[i];
+    }
+    if (this.tileItems.length < n)
+      this.tileItems = new int[Math.max(n, 2 * this.tileItems.length)];
+    for (i = 0; i < frame.numPolygons; i++) {
+      if (this.lefts[i] >= this.rights[i])
+        continue;
+      for (r = this.tops[i] / this.tileSize; r <= (this.bottoms[i] - 1) / this.tileSize; r++)
+        for (c = this.lefts[i] / this.tileSize; c <= (this.rights[i] - 1) / this.tileSize; c++)
+          this.tileItems[this.counts[r * this.columns + c]++] = i;
+    }
+
+    // Make sure each tile has room for the crossings of the largest polygon, and
+    // fill the tiles.
+
+    if (points > this.crossings[0].length)
+      for (i = 0; i < tiles; i++)
+        this.crossings[i] = new double[points];
+    if (this.parallel && frame.numPolygons >= PARALLEL_POLYGONS && tiles > 1)
+      ForkJoinPool.commonPool().invoke(new TGFillTask(this, frame, 0, tiles, xoffset, yoffset));
+    else
+      fill(frame, 0, tiles, xoffset, yoffset);
+  }
+
+  // Fill the given range of tiles. Called by draw(), which sets up the bins.
+
+  void fill(TGFrame frame, int from, int to, int xoffset, int yoffset) {
+
+    int i, k, t, r, x0, y0, x1, y1, x, y, color;
+    int[] pixels;
+    boolean blast;
+
+    // Fill in background and stars. The tiles next to each other in a row are done
+    // together, a whole line of pixels at a time.
+
+    pixels = this.pixels;
+    blast = frame.blastCounter > 0;
+    for (r = from / this.columns; r <= (to - 1) / this.columns; r++) {
+      x0 = Math.max(from - r * this.columns, 0) * this.tileSize;
+      x1 = Math.min(this.width, Math.min(to - r * this.columns, this.columns) * this.tileSize);
+      y0 = r * this.tileSize;
+      y1 = Math.min(this.height, y0 + this.tileSize);
+      for (y = y0; y < y1; y++)
+        Arrays.fill(pixels, y * this.width + x0, y * this.width + x1, blast ? 0xffffff : 0);
+      color = blast ? 0 : 0xffffff;
+      for (i = 0; i < TGWorld.NUM_STARS; i++) {
+        x = frame.starsX[i] + xoffset;
+        y = frame.starsY[i] + yoffset;
+        if (x >= x0 && x < x1 && y >= y0 && y < y1)
+          pixels[y * this.width + x] = color;
+      }
+    }
+
+    for (t = from; t < to; t++) {
+      x0 = (t % this.columns) * this.tileSize;
+      y0 = (t / this.columns) * this.tileSize;
+      x1 = Math.min(this.width, x0 + this.tileSize);
+      y1 = Math.min(this.height, y0 + this.tileSize);
+
+      // Draw the polygons in the tile's bin, in order, each in its color and shade.
+
+      for (k = this.tileStart[t]; k < this.tileStart[t + 1]; k++) {
+        i = this.tileItems[k];
+        fillPolygon(frame.polygons[i], this.values[i],
+                    Math.max(x0, this.lefts[i]), Math.max(y0, this.tops[i]),
+                    Math.min(x1, this.rights[i]), Math.min(y1, this.bottoms[i]),
+                    xoffset, yoffset, this.crossings[t]);
+      }
+    }
+  }
+
+  // Fill the part of a polygon inside the given rectangle (right and bottom not
+  // included), by the even-odd rule. A pixel is filled when the point a quarter of
+  // the way in from its top left corner is inside, which is where
+  // Graphics.fillPolygon() samples too, so the two agree except for the odd pixel
+  // along an edge.
+
+  private void fillPolygon(Polygon p, int color, int x0, int y0, int x1, int y1, int xoffset, int yoffset, double[] c) {
+
+    int i, j, k, n, x, y, a, b, row;
+    int[] xs, ys, pixels;
+    double t;
+
+    xs = p.xpoints;
+    ys = p.ypoints;
+    n = p.npoints;
+    pixels = this.pixels;
+    for (row = y0; row < y1; row++) {
+
+      // Find where each edge crosses the row, and sort them.
+
+      y = row - yoffset;
+      k = 0;
+      for (i = 0, j = n - 1; i < n; j = i++) {
+        if ((ys[i] <= y) == (ys[j] <= y))
+          continue;
+        t = xs[j] + (y + 0.25 - ys[j]) * (xs[i] - xs[j]) / (ys[i] - ys[j]);
+        for (x = k++; x > 0 && c[x - 1] > t; x--)
+          c[x] = c[x - 1];
+        c[x] = t;
+      }
+
+      // Fill the pixels between each pair.
+
+      for (i = 0; i + 1 < k; i += 2) {
+        a = Math.max(x0, (int) Math.ceil(c[i] - 0.25) + xoffset);
+        b = Math.min(x1, (int) Math.ceil(c[i + 1] - 0.25) + xoffset);
+        if (a < b)
+          Arrays.fill(pixels, row * this.width + a, row * this.width + b, color);
+      }
+    }
+  }
+
+  // Make sure there is room for the given number of polygons.
+
+  private void ensure(int n) {
+
+    if (this.lefts != null && n <= this.lefts.length)
+      return;
+    n = Math.max(n, this.lefts == null ? 0 : 2 * this.lefts.length);
+    this.lefts = new int[n];
+    this.rights = new int[n];
+    this.tops = new int[n];
+    this.bottoms = new int[n];
+    this.values = new int[n];
+  }
+
+  private static int rgb(int r, int g, int b) {
+
+    return (r << 16) | (g << 8) | b;
+  }
+}
+
+/******************************************************************************
+  The TGFillTask class fills a range of a TGRaster's tiles, splitting it in two
+  on the fork/join pool until it is small enough to fill directly.
+******************************************************************************/
+
+class TGFillTask extends RecursiveAction {
+
+  // Constants.
+
+  private static final long serialVersionUID = 1L;
+
+  static final int THRESHOLD = 8;    // Tiles to fill without splitting.
+
+  // Fields:
+
+  TGRaster raster;
+  TGFrame  frame;
+  int      from, to;
+  int      xoffset, yoffset;
+
+  // Constructors:
+
+  public TGFillTask(TGRaster raster, TGFrame frame, int from, int to, int xoffset, int yoffset) {
+
+    this.raster = raster;
+    this.frame = frame;
+    this.from = from;
+    this.to = to;
+    this.xoffset = xoffset;
+    this.yoffset = yoffset;
+  }
+
+  // Methods:
+
+  protected void compute() {
+
+    int mid;
+
+    if (this.to - this.from <= THRESHOLD) {
+      this.raster.fill(this.frame, this.from, this.to, this.xoffset, this.yoffset);
+      return;
+    }
+    mid = (this.from + this.to) >>> 1;
+    invokeAll(new TGFillTask(this.raster, this.frame, this.from, mid, this.xoffset, this.yoffset),
+              new TGFillTask(this.raster, this.frame, mid, this.to, this.xoffset, this.yoffset));
+  }
+}
+
+/******************************************************************************
+  Main applet code. The game itself is run by a TGWorld; the applet provides
+  the display, sound and mouse and keyboard input for it.
+
+  Only the game thread touches the TGWorld. Mouse and keyboard events are
+  passed to it through the pending input fields below, and the screen is
+  painted from TGFrame snapshots passed back through a TGFrameBuffer.
+******************************************************************************/
+
+public class TailGunner extends Applet implements Runnable, TGSound {
+
+  // Thread control variables.
+
+  volatile Thread loopThread;
+
+  // Constants.
+
+  static final int MAX_SHAKE     =  5;    // Display constants.
+  static final int TARGET_WIDTH  = 60;
+  static final int TARGET_HEIGHT = 40;
+
+  static final int FRAME_RATE = 60;    // Default screen updates per second.
+  static final int MAX_STEPS  =  5;    // Most game ticks to run for one update.
+
+  static final long METRICS_PERIOD = 500000000L;    // Nanoseconds between updates
+                                                    // of the frame statistics.
+
+  // Loop timing.
+
+  TGClock clock = new TGClock(TGWorld.DELAY * 1000000L, MAX_STEPS);
+  long    framePeriod;
+
+  // Stage timings, and the statistics shown over the game when turned on. They
+  // are counted from when they were last turned on.
+
+  TGMetrics        metrics = new TGMetrics();
+  volatile boolean showMetrics;
+  String[][]       metricsText;
+  String           countsText;
+  long             metricsTime;
+
+  // Game data.
+
+  TGAssets         assets;            // Ship types and sounds, loaded in the
+  volatile boolean loaded = false;    // background.
+  volatile boolean sound;
+
+  long startTime;         // Startup times (nanoseconds): when init() was called,
+  long firstFrameTime;    // when the first frame of the game was shown and when
+  long playableTime;      // everything was loaded.
+
+  TGWorld world;
+  String  resumeFile;    // Where the game is saved when the applet stops.
+  boolean resumed;
+
+  // Frames passed from the game thread to the painting thread, and the one
+  // being painted.
+
+  TGFrameBuffer frames = new TGFrameBuffer();
+  TGFrame       frame;
+
+  // Input waiting to be passed to the game: the mouse position (x in the upper
+  // half, y in the lower) and counts of clicks and key presses.
+
+  volatile long mouse;
+  AtomicInteger clicks = new AtomicInteger();
+  AtomicInteger pauses = new AtomicInteger();
+  AtomicInteger starts = new AtomicInteger();
+
+  // The computer player, which takes the place of the mouse while autoplay is on.
+
+  TGGunner         gunner = new TGAimGunner();
+  volatile boolean autoplay;
+
+  // Beam colors. (Ship colors are in TGRaster.)
+
+  Color[] beamColors = new Color[3];
+
+  // Text displayed every frame, rebuilt only when the values change.
+
+  String scoreText;
+  String highText;
+  String rangeText;
+  String speedText;
+  int    scoreShown = -1;
+  int    highShown  = -1;
+  int    rangeShown = -1;
+  int    speedShown = -1;
+  String[] typeText;
+
+  // Values for the offscreen image. The ships are drawn into its pixels by the
+  // raster, everything else through its graphics context.
+
+  Dimension scrnSize = new Dimension();
+  TGRaster raster;
+  Graphics offGraphics;
+
+  // Random numbers for shaking the screen. These are apart from the game's, as
+  // how often the screen is drawn must not change the game.
+
+  SplittableRandom shake = new SplittableRandom();
+
+  // Font data.
+
+  Font font = new Font("Helvetica", Font.BOLD, 12);
+  FontMetrics fm = getFontMetrics(font);
+  int fontWidth = fm.getMaxAdvance();
+  int fontHeight = fm.getHeight();
+
+  Font smallFont = new Font("Dialog", font.PLAIN, 10);
+  FontMetrics smallFm = getFontMetrics(font);
+  int smallFontWidth = fm.getMaxAdvance();
+  int smallFontHeight = fm.getHeight();
+
+  // Sound clips, decoded once, and the mixer playing them while the applet is
+  // running.
+
+  TGClip[]         clips;
+  volatile TGMixer mixer;
+
+
+  // Applet information.
+
+  public String getAppletInfo() {
+
+    return("Tail Gunner, Version 1.01, Copyright 1998 by Mike Hall.");
+  }
+
+  public void init() {
+
+    Frame frame;
+    Object parent;
+    Dimension d;
+    Graphics g;
+    String s;
+    int i, n;
+
+    // Take credit.
+
+    System.out.println("Tail Gunner, Version 1.01 Copyright 1998 by Mike Hall.");
+
+    // Start loading the ship types and sounds, all at once.
+
+    startTime = System.nanoTime();
+    assets = new TGAssets(getCodeBase());
+    assets.all.thenRun(new Runnable() {
+      public void run() {
+        soundsLoaded();
+      }
+    });
+
+    // Set cursor to crosshairs.
+
+    parent = getParent();
+    while (!(parent instanceof Frame))
+       parent = ((Component) parent).getParent();
+    frame = (Frame) parent;
+    frame.setCursor(Frame.CROSSHAIR_CURSOR);
+
+    // Find the size of the screen and fonts.
+
+    g = getGraphics();
+    d = size();
+
+    g.setFont(font);
+    fm = g.getFontMetrics();
+    fontWidth = fm.getMaxAdvance();
+    fontHeight = fm.getHeight();
+
+    g.setFont(smallFont);
+    smallFm = g.getFontMetrics();
+    smallFontWidth = smallFm.getMaxAdvance();
+    smallFontHeight = smallFm.getHeight();
+
+    // Get the screen update rate, which may be given as a parameter.
+
+    s = getParameter("fps");
+    i = (s != null) ? Integer.parseInt(s) : FRAME_RATE;
+    framePeriod = 1000000000L / Math.max(1, i);
+
+    // Set up the game, with the number of ships and pieces of debris that may be
+    // given as parameters. This only has to wait for the ship types; the demo runs
+    // while the sounds are still loading.
+
+    s = getParameter("ships");
+    i = (s != null) ? Math.max(1, Integer.parseInt(s)) : TGWorld.NUM_SHIPS;
+    s = getParameter("debris");
+    n = (s != null) ? Math.max(0, Integer.parseInt(s)) : TGWorld.MAX_DEBRIS;
+    s = getParameter("seed");
+    assets.ships.join();
+    if (s != null)
+      world = new TGWorld(d.width, d.height, i, n, Long.parseLong(s));
+    else
+      world = new TGWorld(d.width, d.height, i, n);
+    System.out.println("Seed: " + world.seed);
+
+    // Or pick up a saved game, paused, if there is one.
+
+    resumeFile = getParameter("resume");
+    if (resumeFile != null && new File(resumeFile).exists()) {
+      try {
+        world = TGSnapshot.newWorld(TGSnapshot.read(new File(resumeFile)));
+        if (world.gameState == TGWorld.PLAY && !world.paused)
+          world.togglePause();
+        resumed = true;
+        System.out.println("Resumed " + resumeFile);
+      }
+      catch (IOException | RuntimeException e) {
+        System.out.println("Cannot resume from " + resumeFile + ": " + e);
+      }
+    }
+    world.sounds = this;
+    world.metrics = metrics;
+    sound = true;
+    s = getParameter("autoplay");
+    autoplay = (s != null && s.equalsIgnoreCase("true"));
 
-      // Update the screen and set the timer for the next loop.
+    // Record the game if asked to, until the applet is stopped. Only a new game can
+    // be recorded.
 
-      repaint();
+    s = getParameter("record");
+    if (s != null && resumed)
+      System.out.println("Cannot record a resumed game");
+    else if (s != null) {
       try {
-        startTime += DELAY;
-        Thread.sleep(Math.max(0, startTime - System.currentTimeMillis()));
+        world.replay = new TGReplay(new BufferedOutputStream(new FileOutputStream(s)), world);
       }
-      catch (InterruptedException e) {
-        break;
+      catch (IOException | SecurityException e) {
+        System.out.println("Cannot record to " + s + ": " + e);
       }
     }
-  }
 
-  public void loadSounds() {
+    // Build the color tables and the ship descriptions for demo mode.
 
-    // Load all sound clips by playing and immediately stopping them.
-
-    try {
-      blastSound    = getAudioClip(new URL(getCodeBase(), "blast.au"));
-      clipTotal++;
-      debrisSound   = getAudioClip(new URL(getCodeBase(), "debris.au"));
-      clipTotal++;
-      explodeSound  = getAudioClip(new URL(getCodeBase(), "explode.au"));
-      clipTotal++;
-      fireSound     = getAudioClip(new URL(getCodeBase(), "fire.au"));
-      clipTotal++;
-      passingSound  = getAudioClip(new URL(getCodeBase(), "passing.au"));
-      clipTotal++;
-      targetedSound = getAudioClip(new URL(getCodeBase(), "targeted.au"));
-      clipTotal++;
-    }
-    catch (MalformedURLException e) {}
-
-    blastSound.play();    blastSound.stop();    clipsLoaded++;
-    debrisSound.play();   debrisSound.stop();   clipsLoaded++;
-    explodeSound.play();  explodeSound.stop();  clipsLoaded++;
-    fireSound.play();     fireSound.stop();     clipsLoaded++;
-    passingSound.play();  passingSound.stop();  clipsLoaded++;
-    targetedSound.play(); targetedSound.stop(); clipsLoaded++;
+    initColors();
+    typeText = new String[4 * world.numTypes];
+    for (i = 0; i < world.numTypes; i++) {
+      typeText[4 * i]     = world.types[i].name;
+      typeText[4 * i + 1] = "Maximum speed: " + (TGWorld.MAX_SPEED * world.types[i].speed * 1000 / TGWorld.DELAY) + "mps";
+      typeText[4 * i + 2] = "Weapon strength: " + world.types[i].damage;
+      typeText[4 * i + 3] = "Point value: " + world.types[i].points;
+    }
   }
 
-  public void initStar(int i) {
+  public void start() {
 
-    starsAngle[i] = Math.random() * 2 * Math.PI;
-    starsRadius[i] = Math.max(scrnWidth, scrnHeight) / 2 +
-      Math.random() * Math.min(scrnWidth, scrnHeight) / 4;
-    starsMinRadius[i] = starsRadius[i] / (Math.random() * 9 + 1);
+    // Start the game loop, and the sounds if they are already loaded (otherwise
+    // soundsLoaded() starts them).
+
+    if (loopThread == null) {
+      loopThread = new Thread(this);
+      loopThread.start();
+    }
+    if (loaded)
+      startMixer();
   }
 
-  public void updateStars() {
+  // The loop thread stops by itself once it is no longer the loop thread. Wait for
+  // it to finish, along with any recording and saving it does on the way out, so a
+  // new loop started after this never shares the world with the old one.
 
-    int i;
+  public void stop() {
 
-    // Move stars inward.
+    Thread t;
+    boolean interrupted;
 
-    for (i = 0; i < NUM_STARS; i++) {
-      if((starsRadius[i] *= .95) < starsMinRadius[i])
-        initStar(i);
-      starsX[i] = (int) (scrnWidth / 2  + starsRadius[i] * Math.sin(starsAngle[i]));
-      starsY[i] = (int) (scrnHeight / 2 + starsRadius[i] * Math.cos(starsAngle[i]));
+    t = loopThread;
+    loopThread = null;
+    interrupted = false;
+    while (t != null && t.isAlive()) {
+      try {
+        t.join();
+      }
+      catch (InterruptedException e) {
+        interrupted = true;
+      }
     }
+    if (interrupted)
+      Thread.currentThread().interrupt();
+    stopMixer();
   }
 
-  public void initShip(int i) {
-
-    int j;
-    double r, f;
+  // Called when all sounds are loaded. The game can be played from now on.
 
-    r = Math.random();
-    f = 0;
-    j = -1;
-    do {
-      j++;
-      f += typefrq[j];
-    } while (f < r && j < NUM_TYPES - 1);
-    ships[i] = new TGShip(types[j]);
-    ships[i].type = j;
-    ships[i].dz = START_DISTANCE;
-    ships[i].ax = 0;
-    ships[i].ay = 0;
-    ships[i].az = 0;
-    ships[i].color = (int) (Math.random() * NUM_COLORS);
-    ships[i].speed = MIN_SPEED + Math.random() * (MAX_SPEED - MIN_SPEED);
-    ships[i].speed *= typespd[ships[i].type];
-    ships[i].a1 = Math.random() * 2 * Math.PI;
-    ships[i].a2 = Math.random() * 2 * Math.PI;
-    ships[i].c1 = Math.random() * MAX_TURN - 2 * MAX_TURN;
-    ships[i].c1 *= typetrn[ships[i].type];
-    ships[i].c2 = Math.random() * MAX_TURN - 2 * MAX_TURN;
-    ships[i].c2 *= typetrn[ships[i].type];
-    ships[i].dist1 = ships[i].dz;
-    ships[i].dist2 = ships[i].dz;
+  public synchronized void soundsLoaded() {
 
-    ships[i].exploding = false;
+    if (!loaded) {
+      clips = assets.clips;
+      loaded = true;
+      playableTime = System.nanoTime();
+      System.out.println("Playable after " + (playableTime - startTime) / 1000000 + " ms.");
+    }
+    if (loopThread != null)
+      startMixer();
   }
 
-  public void updateShips() {
-
-    int i;
-    double sx, sy;
+  public void run() {
 
-    for (i = 0; i < NUM_SHIPS; i++) {
+    long frameTime, now, t0, t1, t2;
+    int i, n;
+    boolean shot;
+    TGFrameEvent event;
 
-      // If exploding, decrement explosion counter. Generate new ship at end.
+    // Lower this thread's priority and get the current time.
 
-      if (ships[i].exploding) {
-        if (ships[i].counter == EXPLODE_COUNT) {
-          if (sound)
-            explodeSound.play();
-          explodeShip(i);
-          score += typepts[ships[i].type];
-          if (score > highScore)
-            highScore = score;
-        }
-        if (--ships[i].counter <= 0)
-          initShip(i);
-      }
+    Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+    frameTime = System.nanoTime();
 
-      // Otherwise, move the ship.
+    // This is the main loop. The game always advances in ticks of the same length
+    // but the screen is updated at its own rate, showing the ships in between
+    // ticks.
 
-      else {
-        ships[i].a1 += ships[i].c1;
-        if (ships[i].a1 > 2 * Math.PI)
-          ships[i].a1 -= 2 * Math.PI;
-        ships[i].a2 += ships[i].c2;
-        if (ships[i].a2 > 2 * Math.PI)
-          ships[i].a2 -= 2 * Math.PI;
-        sx = Math.sin(ships[i].a1);
-        sy = Math.sin(ships[i].a2);
-        ships[i].dx = MAX_HORIZONTAL * sx;
-        ships[i].dy = MAX_VERTICAL   * sy;
-        ships[i].ax = -sy * Math.PI / 6;
-        ships[i].az =  sx * Math.PI / 6;
-        ships[i].dz += ships[i].speed;
-        ships[i].dist2 = ships[i].dist1;
-        ships[i].dist1 = Math.sqrt(Math.pow(ships[i].dx, 2) + Math.pow(ships[i].dy, 2) + Math.pow(ships[i].dz, 2));
+    clock.reset(frameTime);
+    while (Thread.currentThread() == loopThread) {
 
-        // When close, play sound effect.
+      // Run as many ticks as needed to catch up with the clock, passing along any
+      // input first. A shot in any of them is shown, not just one in the last.
+
+      event = TGFrameEvent.TYPE.isEnabled() ? new TGFrameEvent() : null;
+      if (event != null)
+        event.begin();
+      t0 = System.nanoTime();
+      n = clock.advance(t0);
+      world.setSize(getWidth(), getHeight());
+      shot = false;
+      for (i = 0; i < n; i++) {
+        input();
+        world.step();
+        shot |= world.fired;
+      }
+      t1 = System.nanoTime();
+      world.render(clock.alpha());
 
-        if (ships[i].dz > SOUND_DISTANCE && !ships[i].sounded) {
-            ships[i].sounded = true;
-            if (sound)
-              passingSound.play();
-        }
+      // Hand a snapshot of the game to the painting thread. Update the screen and
+      // set the timer for the next loop.
 
-        // If too close, let it take a shot then remove and generate a new ship.
+      frames.back().capture(world);
+      frames.back().fired |= shot;
+      frames.publish();
+      repaint();
 
-        if (ships[i].dz > END_DISTANCE) {
-          if (gameState != END && Math.random() < .5) {
-            if (sound)
-              blastSound.play();
-            shields -= typedmg[ships[i].type];
-            if (shields < 0) {
-              shields = 0;
-              endGame();
-            }
-            blastCounter = BLAST_COUNT;
-          }
-          if (gameState == PLAY)
-            initShip(i);
-          else
-            ships[i] = new TGShip();
-        }
+      // Record how long it all took.
+
+      t2 = System.nanoTime();
+      metrics.record(TGMetrics.STEP, t1 - t0);
+      metrics.record(TGMetrics.FRAME, t2 - t0);
+      if (event != null && event.shouldCommit()) {
+        event.steps = n;
+        event.step = t1 - t0;
+        event.render = metrics.last[TGMetrics.RENDER];
+        event.sort = metrics.last[TGMetrics.SORT];
+        event.objects = world.list.numObjects;
+        event.debris = world.numActive;
+        event.faces = world.list.numEntries;
+        event.culled = world.numCulled;
+        event.commit();
+      }
+      try {
+        now = System.nanoTime();
+        frameTime += framePeriod;
+        if (frameTime < now - framePeriod)
+          frameTime = now;
+        Thread.sleep(Math.max(0, (frameTime - now) / 1000000));
+      }
+      catch (InterruptedException e) {
+        break;
+      }
+    }
 
-        // Render the ship and add it to the master list.
+    // Finish any recording, and save the game if it is to be resumed.
 
-        ships[i].render(viewpoint, MAG, scrnWidth / 2, scrnHeight / 2);
+    if (world.replay != null) {
+      world.replay.close(world);
+      if (world.replay.error != null)
+        System.out.println("Recording failed: " + world.replay.error);
+      world.replay = null;
+    }
+    if (resumeFile != null) {
+      try {
+        TGSnapshot.write(world, new File(resumeFile));
+      }
+      catch (IOException | SecurityException e) {
+        System.out.println("Cannot save to " + resumeFile + ": " + e);
       }
     }
   }
 
-  public void explodeShip(int i) {
-
-    int j;
-
-    // Create debris from the ship.
-
-    for (j = 0; j < ships[i].faces.size(); j += 2) {
-
-      // Copy ship face.
-
-      debris[debrisIndex] = new TGDebris(ships[i], j);
+  // Start the mixer, on the sound device if there is one.
 
-      // Set random rotation and motion.
-
-      debris[debrisIndex].rx = Math.random() * MAX_SPIN - 2 * MAX_SPIN;
-      debris[debrisIndex].ry = Math.random() * MAX_SPIN - 2 * MAX_SPIN;
-      debris[debrisIndex].rz = Math.random() * MAX_SPIN - 2 * MAX_SPIN;
-      debris[debrisIndex].mx = Math.random() * ships[i].speed / 2 - ships[i].speed / 4;
-      debris[debrisIndex].my = Math.random() * ships[i].speed / 2 - ships[i].speed / 4;
-      debris[debrisIndex].mz = ships[i].speed +
-        Math.random() * ships[i].speed / 2 - ships[i].speed / 4;
-
-      // Set counter.
+  public synchronized void startMixer() {
 
-      debris[debrisIndex].counter = DEBRIS_COUNT;
-      debris[debrisIndex].active = true;
+    TGMixer m;
 
-      // Advance array index for next piece.
-
-      if (++debrisIndex >= MAX_DEBRIS)
-        debrisIndex = 0;
+    if (mixer == null) {
+      m = new TGMixer(clips, TGMixer.openLine());
+      m.start();
+      mixer = m;
     }
   }
 
-  public void updateDebris() {
+  public synchronized void stopMixer() {
 
-    int i;
+    if (mixer != null) {
+      mixer.close();
+      mixer = null;
+    }
+  }
 
-    // Move any active debris.
-
-    for (i = 0; i < MAX_DEBRIS; i++)
-      if (debris[i].active) {
-        debris[i].ax += debris[i].rx;
-        if (debris[i].ax > 2 * Math.PI)
-          debris[i].ax -= 2 * Math.PI;
-        debris[i].ay += debris[i].ry;
-        if (debris[i].ay > 2 * Math.PI)
-          debris[i].ay -= 2 * Math.PI;
-        debris[i].az += debris[i].rz;
-        if (debris[i].az > 2 * Math.PI)
-          debris[i].az -= 2 * Math.PI;
-        debris[i].dx += debris[i].mx;
-        debris[i].dy += debris[i].my;
-        debris[i].dz += debris[i].mz;
+  // Pass any input received since the last tick to the game. Called only from
+  // the game thread.
 
-        // If too close, remove it. Otherwise render it.
+  public void input() {
 
-        if (debris[i].dz > END_DISTANCE) {
-          if (sound && Math.abs(debris[i].dx) < MAG / 2 && Math.abs(debris[i].dy) < MAG / 2)
-            debrisSound.play();
-          debris[i].active = false;
-        }
-        else
-          debris[i].render(viewpoint, MAG, scrnWidth / 2, scrnHeight / 2);
+    int x, y, n;
+    long m;
 
-        // Advance the counter.
+    // With autoplay on, the gunner takes the place of the mouse, and starts a new
+    // game whenever the last one is over.
 
-        if (--debris[i].counter <= 0)
-          debris[i].active = false;
-      }
-  }
+    if (autoplay) {
+      clicks.set(0);
+      if (loaded && world.gameState == TGWorld.DEMO)
+        world.initGame();
+      if (!world.paused)
+        gunner.aim(world);
+    }
 
-  public void initDemo() {
+    else {
+      m = mouse;
+      x = (int) (m >> 32);
+      y = (int) m;
+      world.mouseMove(x, y);
 
-    int i;
+      // Set firing flag, and start game if not already in progress.
 
-    gameState = DEMO;
-    demoIndex = 0;
-    for (i = 1; i < NUM_SHIPS; i++)
-      ships[i] = new TGShip();
-    setDemo();
-  }
+      if (clicks.getAndSet(0) > 0) {
+        world.mouseDown(x, y);
+        if (loaded && world.gameState == TGWorld.DEMO)
+          world.initGame();
+      }
+    }
 
-  public void setDemo() {
+    // Toggle pause mode once for each 'P' key press.
 
-    ships[0] = new TGShip(types[demoIndex]);
-    ships[0].ax = 0;
-    ships[0].ay = 0;
-    ships[0].a1 = Math.PI / 200;
-    ships[0].a2 = Math.PI / 50;
-    ships[0].dz = START_DISTANCE;
-    ships[0].color = demoIndex;
-    ships[0].speed = MAX_SPEED;
-    demoCounter = DEMO_COUNT;
-  }
+    n = pauses.getAndSet(0);
+    while (n-- > 0)
+      world.togglePause();
 
-  public void updateDemo() {
+    // Start game if not already in progress.
 
-    if (--demoCounter <= 0) {
-      if (++demoIndex >= NUM_TYPES)
-        demoIndex = 0;
-      setDemo();
-    }
-    ships[0].ax += ships[0].a1;
-    if (Math.abs(ships[0].ax) > Math.PI / 6)
-      ships[0].a1 = -ships[0].a1;
-    ships[0].ay += ships[0].a2;
-    if (ships[0].ay > 2 * Math.PI)
-      ships[0].ay -= 2 * Math.PI;
-    if (ships[0].dz < DEMO_DISTANCE)
-      ships[0].dz += ships[0].speed;
-    else
-      ships[0].speed = 0;
-    ships[0].dist2 = ships[0].dist1;
-    ships[0].dist1 = Math.abs(ships[0].dz);
-    TGObject.reset();
-    ships[0].render(viewpoint, MAG, scrnWidth / 2, scrnHeight / 2);
+    if (starts.getAndSet(0) > 0 && loaded && world.gameState != TGWorld.PLAY)
+      world.initGame();
   }
 
   public boolean mouseMove(Event e, int x, int y) {
 
     // Get screen coordinates of mouse pointer.
 
-    mx = x;
-    my = y;
+    mouse = ((long) x << 32) | (y & 0xffffffffL);
     return true;
   }
 
   public boolean mouseDown(Event e, int x, int y) {
 
-    // Set firing flag.
-
-    if (!paused && gameState == PLAY) {
-      mx = x;
-      my = y;
-      firing = true;
-    }
-
-    // Start game if not already in progress.
-
-    if (loaded && gameState == DEMO)
-      initGame();
+    // Fire, or start a game.
 
+    mouse = ((long) x << 32) | (y & 0xffffffffL);
+    clicks.incrementAndGet();
     return true;
   }
 
   public boolean keyDown(Event e, int key) {
 
+    TGMixer m;
+
     // 'M' key: toggle sound.
 
     if (key == 109) {
-      if (sound) {
-        blastSound.stop();
-        debrisSound.stop();
-        explodeSound.stop();
-        fireSound.stop();
-        passingSound.stop();
-        targetedSound.stop();
-      }
+      if (sound && (m = mixer) != null)
+        m.stopAll();
       sound = !sound;
     }
 
     // 'P' key: toggle pause mode.
 
     if (key == 112) {
-      if (!paused && sound) {
-        blastSound.stop();
-        debrisSound.stop();
-        explodeSound.stop();
-        fireSound.stop();
-        passingSound.stop();
-        targetedSound.stop();
-      }
-      paused = !paused;
-      firing = false;
+      if (frame != null && !frame.paused && sound && (m = mixer) != null)
+        m.stopAll();
+      pauses.incrementAndGet();
     }
 
     // 'S' key: start game if not already in progress.
 
-    if (loaded && key == 115 && gameState != PLAY)
-      initGame();
+    if (key == 115)
+      starts.incrementAndGet();
+
+    // 'A' key: toggle autoplay.
+
+    if (key == 97)
+      autoplay = !autoplay;
+
+    // 'F' key: toggle frame statistics, counting afresh each time they are shown.
+
+    if (key == 102) {
+      if (!showMetrics) {
+        metrics.reset();
+        metricsTime = 0;
+      }
+      showMetrics = !showMetrics;
+    }
 
     return true;
   }
 
-  public Color getColor(int index, int c) {
+  public void play(int clip) {
 
-    if (blastCounter > 0) {
-      c = 255 - c;
-      return new Color(c, c, c);
-    }
+    TGMixer m;
+
+    // Play a sound effect from the game, unless muted.
+
+    m = mixer;
+    if (sound && m != null)
+      m.play(clip);
+  }
 
-    if (index == 0)
-      return new Color(c, c / 2, c / 2);
-    if (index == 1)
-      return new Color(c / 2, c, c / 2);
-    if (index == 2)
-      return new Color(c / 2, c / 2, c);
-    if (index == 3)
-      return new Color(0, c, c);
-    if (index == 4)
-      return new Color(c, 0, c);
-    if (index == 5)
-      return new Color(c, c, 0);
+  public void initColors() {
 
-    return Color.black;
+    int i, c;
+
+    for (i = 0; i < 3; i++) {
+      c = 255 - i * 64;
+      beamColors[i] = new Color(c / 2, c, c / 2);
+    }
   }
 
   public void paint(Graphics g) {
@@ -1706,96 +5717,62 @@ public class TailGunner extends Applet implements Runnable {
 
   public void update(Graphics g) {
 
-    int i, j;
-    int c;
+    int i;
     int xtrans = 0, ytrans = 0;
-    int range = 0, speed = 0;
+    int range, speed;
+    int mx, my;
     int x, y;
     int w, h;
     String s;
-    TGShip shape, victim;
-    Double angle;
-    Polygon polygon;
+    TGFrame frame;
     Dimension d;
-    boolean targeted;
-
-    d = size();
-    scrnWidth = d.width;
-    scrnHeight = d.height;
-
-    // Create the offscreen graphics context, if no good one exists.
-
-    if (offGraphics == null || d.width != offDimension.width || d.height != offDimension.height) {
-      offDimension = d;
-      offImage = createImage(d.width, d.height);
-      offGraphics = offImage.getGraphics();
+    int blastCounter;
+    boolean paused;
+    long t0, t1, t2, t3;
+    TGPaintEvent event;
+
+    // Get the latest snapshot of the game.
+
+    event = TGPaintEvent.TYPE.isEnabled() ? new TGPaintEvent() : null;
+    if (event != null)
+      event.begin();
+    t0 = System.nanoTime();
+    frame = frames.latest();
+    this.frame = frame;
+    blastCounter = frame.blastCounter;
+    paused = frame.paused;
+    mx = frame.mx;
+    my = frame.my;
+
+    d = getSize(scrnSize);
+
+    // Create the offscreen image, if no good one exists.
+
+    if (raster == null || d.width != raster.width || d.height != raster.height) {
+      if (offGraphics != null)
+        offGraphics.dispose();
+      raster = new TGRaster(d.width, d.height);
+      offGraphics = raster.image.getGraphics();
     }
 
-    // Fill in background.
-
-    offGraphics.setColor(Color.black);
-    if (blastCounter > 0)
-      offGraphics.setColor(Color.white);
-    offGraphics.fillRect(0, 0, d.width, d.height);
-
     // Shake up view if being blasted.
 
     if (blastCounter > 0 && !paused) {
-      xtrans = (int) (Math.random() * 2 * MAX_SHAKE - MAX_SHAKE);
-      ytrans = (int) (Math.random() * 2 * MAX_SHAKE - MAX_SHAKE);
-    }
-    offGraphics.translate(xtrans, ytrans);
-
-    // Draw stars.
-
-    offGraphics.setColor(Color.white);
-    if (blastCounter > 0)
-      offGraphics.setColor(Color.black);
-    for (i = 0; i < NUM_STARS; i++)
-      offGraphics.drawLine(starsX[i], starsY[i], starsX[i], starsY[i]);
-
-    // Draw all active ships and debris.
-
-    targeted = false;
-    victim = null;
-    for (i = 0; i < TGObject.list.size(); i++) {
-      shape = (TGShip) TGObject.list.elementAt(i);
-      for (j = 0; j < shape.polygons.size(); j++) {
-        polygon = (Polygon) shape.polygons.elementAt(j);
-        angle = (Double) shape.angles.elementAt(j);
-        c = 255 - (int) (255 * (angle.doubleValue() / (Math.PI / 2)));
-        offGraphics.setColor(getColor(shape.color, c));
-        offGraphics.fillPolygon(polygon);
-
-        // If this is a ship, is it targeted and are we firing? (If ships overlap, only the last,
-        // or nearest, should be hit so save the index.)
-
-        if (!(shape instanceof TGDebris) && polygon.inside(mx, my)) {
-          targeted = true;
-          range = (int) shape.dist1;
-          speed = (int) ((shape.dist2 - shape.dist1) * 1000 / DELAY);
-          if (firing)
-            victim = shape;
-        }
-      }
+      xtrans = (int) (shake.nextDouble() * 2 * MAX_SHAKE - MAX_SHAKE);
+      ytrans = (int) (shake.nextDouble() * 2 * MAX_SHAKE - MAX_SHAKE);
     }
 
-    // If a ship was targeted while firing, set it up for explosion.
+    // Fill in background and stars, and draw all active ships and debris.
 
-    if (victim != null) {
-      victim.exploding = true;
-      victim.counter = EXPLODE_COUNT;
-    }
+    raster.draw(frame, xtrans, ytrans);
+    offGraphics.translate(xtrans, ytrans);
+    t1 = System.nanoTime();
 
     // Draw beams if firing.
 
-    if (firing && !paused) {
-      if (sound)
-        fireSound.play();
-      firing = false;
+    if (frame.fired && !paused) {
       for (i = 0; i < 3; i++) {
-        c = 255 - i * 64;
-        offGraphics.setColor(new Color(c / 2, c, c / 2));
+        offGraphics.setColor(beamColors[i]);
         if (blastCounter > 0)
           offGraphics.setColor(Color.gray);
         offGraphics.drawLine(0, d.height - 3 + i, mx, my);
@@ -1807,9 +5784,9 @@ public class TailGunner extends Applet implements Runnable {
 
     // Highlight target if in sights.
 
-    if (targeted && gameState != END) {
-      if (loaded && !paused && sound)
-        targetedSound.play();
+    if (frame.targeted && frame.gameState != TGWorld.END) {
+      range = frame.targetRange;
+      speed = frame.targetSpeed;
       offGraphics.setColor(Color.yellow);
       if (blastCounter > 0)
         offGraphics.setColor(Color.darkGray);
@@ -1826,9 +5803,17 @@ public class TailGunner extends Applet implements Runnable {
       offGraphics.drawLine(mx - x, my + y, mx - x + w, my + y);
       offGraphics.drawLine(mx + x, my + y, mx + x - w, my + y);
       offGraphics.setFont(smallFont);
-      s = range + "m";
+      if (range != rangeShown) {
+        rangeShown = range;
+        rangeText = range + "m";
+      }
+      s = rangeText;
       offGraphics.drawString(s, mx + x + smallFontWidth, my);
-      s = speed + "mps";
+      if (speed != speedShown) {
+        speedShown = speed;
+        speedText = speed + "mps";
+      }
+      s = speedText;
       offGraphics.drawString(s, mx - x - (smallFm.stringWidth(s) + smallFontWidth), my);
     }
 
@@ -1838,31 +5823,39 @@ public class TailGunner extends Applet implements Runnable {
     offGraphics.setColor(Color.green);
     if (blastCounter > 0)
       offGraphics.setColor(Color.darkGray);
-    s = "Score: " + score;
+    if (frame.score != scoreShown) {
+      scoreShown = frame.score;
+      scoreText = "Score: " + frame.score;
+    }
+    s = scoreText;
     offGraphics.drawString(s, fontWidth, fontHeight);
-    s = "High: " + highScore;
+    if (frame.highScore != highShown) {
+      highShown = frame.highScore;
+      highText = "High: " + frame.highScore;
+    }
+    s = highText;
     offGraphics.drawString(s, d.width - (fontWidth + fm.stringWidth(s)), fontHeight);
     s = "Shields: ";
     offGraphics.drawString(s, fontWidth, d.height - fontHeight);
     x = fm.stringWidth(s) + fontWidth;
     y = d.height - 3 * fontHeight / 2;
-    offGraphics.drawRect(x, y, 2 * SHIELD_START, fontHeight / 2);
-    offGraphics.fillRect(x, y, 2 * shields, fontHeight / 2);
-    if (!sound && !paused && gameState != DEMO) {
+    offGraphics.drawRect(x, y, 2 * TGWorld.SHIELD_START, fontHeight / 2);
+    offGraphics.fillRect(x, y, 2 * frame.shields, fontHeight / 2);
+    if (!sound && !paused && frame.gameState != TGWorld.DEMO) {
       s = "Muted";
       offGraphics.drawString(s, d.width - (fontWidth + fm.stringWidth(s)), d.height - fontHeight);
     }
-    if (paused && gameState != DEMO) {
+    if (paused && frame.gameState != TGWorld.DEMO) {
       s = "Paused";
       offGraphics.drawString(s, d.width - (fontWidth + fm.stringWidth(s)), d.height - fontHeight);
     }
 
     offGraphics.setColor(Color.white);
-    if (gameState == END) {
+    if (frame.gameState == TGWorld.END) {
       s = "Game Over";
       offGraphics.drawString(s, (d.width - fm.stringWidth(s)) / 2, (d.height - fontHeight) / 2);
     }
-    if (gameState == DEMO) {
+    if (frame.gameState == TGWorld.DEMO) {
       s = "Tail Gunner";
       offGraphics.drawString(s, (d.width - fm.stringWidth(s)) / 2, fontHeight);
       s = "Version 1.01";
@@ -1881,8 +5874,7 @@ public class TailGunner extends Applet implements Runnable {
         offGraphics.setColor(Color.black);
         offGraphics.fillRect(x, y, w, h);
         offGraphics.setColor(Color.blue);
-        if (clipTotal > 0)
-          offGraphics.fillRect(x, y, (int) (w * clipsLoaded / clipTotal), h);
+        offGraphics.fillRect(x, y, w * assets.done.get() / assets.total, h);
         offGraphics.setColor(Color.white);
         offGraphics.drawRect(x, y, w, h);
         offGraphics.drawString(s, x + 2 * fontWidth, y + fm.getMaxAscent());
@@ -1896,25 +5888,98 @@ public class TailGunner extends Applet implements Runnable {
 
       offGraphics.setColor(Color.green);
       offGraphics.setFont(smallFont);
-      if (targeted) {
+      if (frame.targeted) {
         offGraphics.setColor(Color.yellow);
         s = "Target box displays craft's closing speed and range.";
         offGraphics.drawString(s, (d.width - smallFm.stringWidth(s)) / 2, 5 * fontHeight);
       }
       offGraphics.setColor(Color.red);
-      s = typenme[demoIndex];
+      s = typeText[4 * frame.demoIndex];
       offGraphics.drawString(s, d.width / 2 - (smallFm.stringWidth(s) + fontWidth), d.height - 4 * fontHeight);
-      s = "Maximum speed: " + (MAX_SPEED * typespd[demoIndex] * 1000 / DELAY) + "mps";
+      s = typeText[4 * frame.demoIndex + 1];
       offGraphics.drawString(s, d.width / 2 + smallFontWidth, d.height - 4 * fontHeight);
-      s = "Weapon strength: " + typedmg[demoIndex];
+      s = typeText[4 * frame.demoIndex + 2];
       offGraphics.drawString(s, d.width / 2 - (smallFm.stringWidth(s) + fontWidth), d.height - 3 * fontHeight);
-      s = "Point value: " + typepts[demoIndex];
+      s = typeText[4 * frame.demoIndex + 3];
       offGraphics.drawString(s, d.width / 2 + smallFontWidth, d.height - 3 * fontHeight);
     }
 
+    // Show the frame statistics next to the score, if turned on.
+
+    if (showMetrics)
+      drawMetrics(blastCounter);
+
     // Copy the off screen buffer to the screen.
 
     offGraphics.translate(-xtrans, -ytrans);
-    g.drawImage(offImage, 0, 0, this);
+    t2 = System.nanoTime();
+    g.drawImage(raster.image, 0, 0, this);
+    t3 = System.nanoTime();
+
+    // Record how long it all took.
+
+    metrics.record(TGMetrics.RASTER, t1 - t0);
+    metrics.record(TGMetrics.HUD, t2 - t1);
+    metrics.record(TGMetrics.BLIT, t3 - t2);
+    if (event != null && event.shouldCommit()) {
+      event.raster = t1 - t0;
+      event.hud = t2 - t1;
+      event.blit = t3 - t2;
+      event.polygons = frame.numPolygons;
+      event.commit();
+    }
+
+    // Note how long the first frame of the game took to show.
+
+    if (firstFrameTime == 0 && frame.gameState != 0) {
+      firstFrameTime = System.nanoTime();
+      System.out.println("First frame after " + (firstFrameTime - startTime) / 1000000 + " ms.");
+    }
+  }
+
+  // Draw the 50th and 99th percentile and the longest time for each stage, in
+  // milliseconds, and the counts from the latest frame, under the score. The text
+  // is only rebuilt a couple of times a second, so it can be read.
+
+  public void drawMetrics(int blastCounter) {
+
+    int i, j, x, y, w;
+    long now;
+    TGHistogram h;
+
+    now = System.nanoTime();
+    if (metricsText == null || now - metricsTime >= METRICS_PERIOD) {
+      metricsTime = now;
+      metricsText = new String[TGMetrics.NUM_STAGES + 1][];
+      metricsText[0] = new String[] { "", "p50", "p99", "max" };
+      for (i = 0; i < TGMetrics.NUM_STAGES; i++) {
+        h = metrics.stages[i];
+        metricsText[i + 1] = new String[] {
+          TGMetrics.STAGE_NAMES[i], millis(h.percentile(50)), millis(h.percentile(99)), millis(h.max()) };
+      }
+      countsText = frame.numObjects + " objects, " + frame.numDebris + " debris, " +
+                   frame.numPolygons + " faces drawn, " + frame.numCulled + " culled, " +
+                   Math.round(clock.frameRate()) + " fps";
+    }
+
+    offGraphics.setFont(smallFont);
+    offGraphics.setColor(Color.green);
+    if (blastCounter > 0)
+      offGraphics.setColor(Color.darkGray);
+    w = smallFm.stringWidth("Render") + smallFontWidth;
+    x = fontWidth;
+    y = fontHeight + smallFontHeight;
+    for (i = 0; i < metricsText.length; i++, y += smallFontHeight)
+      for (j = 0; j < metricsText[i].length; j++)
+        offGraphics.drawString(metricsText[i][j], x + j * w, y);
+    offGraphics.drawString(countsText, x, y);
+  }
+
+  static String millis(long nanos) {
+
+    long hundredths;
+
+    hundredths = (nanos + 5000) / 10000;
+    return (hundredths / 100) + "." + (hundredths % 100 / 10) + (hundredths % 10);
   }
 }